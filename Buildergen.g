@@ -44,6 +44,80 @@ grammar Buildergen;
        out.println(text); 
     }
     
+    //the nodes which the parser may create, and the
+    //code which adds a child to, and copies the children
+    //of, the current node
+    java.util.Set<String> created = new java.util.LinkedHashSet<String>();
+    StringBuilder add = new StringBuilder();
+    StringBuilder copy = new StringBuilder();
+    
+    void add(String text) {
+        add.append(text).append('\n');
+    }
+    
+    void copy(String text) {
+        copy.append(text).append('\n');
+    }
+    
+    void printDirect() {
+        println("    /**");
+        println("     * Create the node for a token of the parser, or");
+        println("     * return null if the tree has no node of its type.");
+        println("     */");
+        println("    Node create(Token token) {");
+        println("        switch (token.getType()) {");
+        for (String n: created) {
+            println("        case " + n + ":");
+            println("            return new " + className(n) + "(token);");
+        }
+        println("        default:");
+        println("            return null;");
+        println("        }");
+        println("    }\n");
+        println("    /**");
+        println("     * Add a child to a node created by the parser, as");
+        println("     * it is added to the corresponding ANTLR node.");
+        println("     */");
+        println("    void addChild(Node node, Node child) {");
+        println("        int type = child.getToken().getType();");
+        println("        switch (node.getToken().getType()) {");
+        for (String n: created) {
+            println("        case " + n + ":");
+            println("            add" + className(n) + "Child((" + className(n) + ") node, type, child);");
+            println("            break;");
+        }
+        println("        }");
+        println("    }\n");
+        println("    /**");
+        println("     * Copy a node created by the parser, with all its");
+        println("     * descendants.");
+        println("     */");
+        println("    Node copy(Node node) {");
+        println("        Node result;");
+        println("        switch (node.getToken().getType()) {");
+        for (String n: created) {
+            println("        case " + n + ":");
+            println("            result = new " + className(n) + "(node.getToken());");
+            println("            copy" + className(n) + "Children((" + className(n) + ") node, (" + className(n) + ") result);");
+            println("            break;");
+        }
+        println("        default:");
+        println("            throw new IllegalArgumentException(node.toString());");
+        println("        }");
+        println("        result.setChildPosition(node.getLine(), node.getCharPositionInLine());");
+        println("        return result;");
+        println("    }\n");
+        println("    /**");
+        println("     * A node may be added to a second parent, or twice");
+        println("     * to the same parent, when a rule passes its tree");
+        println("     * to another rule. The second time, it is copied,");
+        println("     * just as the ANTLR tree node is built twice.");
+        println("     */");
+        println("    private Node attach(Node child) {");
+        println("        return child.getParent()==null ? child : copy(child);");
+        println("    }\n");
+    }
+    
 }
 
 nodeList : 
@@ -51,12 +125,15 @@ nodeList :
     println("package com.redhat.ceylon.compiler.tree;\n");
     println("import static com.redhat.ceylon.compiler.tree.Tree.*;\n");
     println("import static com.redhat.ceylon.compiler.parser.CeylonParser.*;\n");
+    println("import org.antlr.runtime.Token;");
     println("import org.antlr.runtime.tree.CommonTree;\n");
     println("import java.util.*;\n");
     println("public class Builder {\n");
+    created.add("COMPILATION_UNIT");
     }
            (DESCRIPTION? node)+ 
            EOF
+    { printDirect(); }
     { println("}"); }
            ;
 
@@ -68,6 +145,7 @@ node : '^' '('
        { println("        return node;"); }
        { println("    }\n"); }
        { println("    public void build" + className($n.text) + "(CommonTree treeNode, " + className($n.text) + " node) {"); }
+       { add.setLength(0); copy.setLength(0); }
        extendsNode?
        (
        { println("        @SuppressWarnings(\"unchecked\")"); }
@@ -79,10 +157,18 @@ node : '^' '('
        (DESCRIPTION? field)*
        ')' 
        { println("    }\n"); }
+       { println("    void add" + className($n.text) + "Child(" + className($n.text) + " node, int type, Node child) {"); }
+       { print(add.toString()); }
+       { println("    }\n"); }
+       { println("    void copy" + className($n.text) + "Children(" + className($n.text) + " from, " + className($n.text) + " to) {"); }
+       { print(copy.toString()); }
+       { println("    }\n"); }
      ;
 
 extendsNode : ':' n=NODE_NAME 
               { println("        build" + className($n.text) + "(treeNode, node);"); }
+              { add("        add" + className($n.text) + "Child(node, type, child);"); }
+              { copy("        copy" + className($n.text) + "Children(from, to);"); }
             ;
 
 subnode : n=NODE_NAME '?'? f=FIELD_NAME
@@ -90,36 +176,80 @@ subnode : n=NODE_NAME '?'? f=FIELD_NAME
           { println("                node.set" + initialUpper($f.text) + "(build" + className($n.text) + "(childTreeNode));"); }
           { println("                continue;"); }
           { println("            }"); }
+          { created.add($n.text); }
+          { add("        if (type==" + $n.text + " && node.get" + initialUpper($f.text) + "()==null) {"); }
+          { add("            node.set" + initialUpper($f.text) + "((" + className($n.text) + ") attach(child));"); }
+          { add("            return;"); }
+          { add("        }"); }
+          { copy("        if (from.get" + initialUpper($f.text) + "()!=null) {"); }
+          { copy("            to.set" + initialUpper($f.text) + "((" + className($n.text) + ") copy(from.get" + initialUpper($f.text) + "()));"); }
+          { copy("        }"); }
         | n=NODE_NAME '?'? g=FIELD_NAME
           { println("            if (node.get" + initialUpper($g.text) + "()==null) {"); }
+          { add("        if (node.get" + initialUpper($g.text) + "()==null) {"); }
           '(' (
           s=NODE_NAME 
           { println("                if (childTreeNode.getType()==" + $s.text + ") {"); }
           { println("                    node.set" + initialUpper($g.text) + "(build" + className($s.text) + "(childTreeNode));"); }
           { println("                    continue;"); }
           { println("                }"); }
+          { created.add($s.text); }
+          { add("            if (type==" + $s.text + ") {"); }
+          { add("                node.set" + initialUpper($g.text) + "((" + className($s.text) + ") attach(child));"); }
+          { add("                return;"); }
+          { add("            }"); }
           )+ ')'
           { println("            }"); }
+          { add("        }"); }
+          { copy("        if (from.get" + initialUpper($g.text) + "()!=null) {"); }
+          { copy("            to.set" + initialUpper($g.text) + "((" + className($n.text) + ") copy(from.get" + initialUpper($g.text) + "()));"); }
+          { copy("        }"); }
          | n=NODE_NAME '?'?
           { println("            if (childTreeNode.getType()==" + $n.text + " && node.get" + className($n.text) + "()==null) {"); }
           { println("                node.set" + className($n.text) + "(build" + className($n.text) + "(childTreeNode));"); }
           { println("                continue;"); }
           { println("            }"); }
+          { created.add($n.text); }
+          { add("        if (type==" + $n.text + " && node.get" + className($n.text) + "()==null) {"); }
+          { add("            node.set" + className($n.text) + "((" + className($n.text) + ") attach(child));"); }
+          { add("            return;"); }
+          { add("        }"); }
+          { copy("        if (from.get" + className($n.text) + "()!=null) {"); }
+          { copy("            to.set" + className($n.text) + "((" + className($n.text) + ") copy(from.get" + className($n.text) + "()));"); }
+          { copy("        }"); }
         | n=NODE_NAME '?'? 
           { println("            if (node.get" + className($n.text) + "()==null) {"); }
+          { add("        if (node.get" + className($n.text) + "()==null) {"); }
           '(' (
           s=NODE_NAME 
           { println("                if (childTreeNode.getType()==" + $s.text + ") {"); }
           { println("                    node.set" + className($n.text) + "(build" + className($s.text) + "(childTreeNode));"); }
           { println("                    continue;"); }
           { println("                }"); }
+          { created.add($s.text); }
+          { add("            if (type==" + $s.text + ") {"); }
+          { add("                node.set" + className($n.text) + "((" + className($s.text) + ") attach(child));"); }
+          { add("                return;"); }
+          { add("            }"); }
           )+ ')'
           { println("            }"); }
+          { add("        }"); }
+          { copy("        if (from.get" + className($n.text) + "()!=null) {"); }
+          { copy("            to.set" + className($n.text) + "((" + className($n.text) + ") copy(from.get" + className($n.text) + "()));"); }
+          { copy("        }"); }
         | mn=NODE_NAME '*'
           { println("            if (childTreeNode.getType()==" + $mn.text + ") {"); }
           { println("                node.add" + className($mn.text) + "(build" + className($mn.text) + "(childTreeNode));"); }
           { println("                continue;"); }
           { println("            }"); }
+          { created.add($mn.text); }
+          { add("        if (type==" + $mn.text + ") {"); }
+          { add("            node.add" + className($mn.text) + "((" + className($mn.text) + ") attach(child));"); }
+          { add("            return;"); }
+          { add("        }"); }
+          { copy("        for (" + className($mn.text) + " n: from.get" + className($mn.text) + "s()) {"); }
+          { copy("            to.add" + className($mn.text) + "((" + className($mn.text) + ") copy(n));"); }
+          { copy("        }"); }
         | mn=NODE_NAME '*'
           '(' (
           s=NODE_NAME
@@ -127,7 +257,15 @@ subnode : n=NODE_NAME '?'? f=FIELD_NAME
           { println("                node.add" + className($mn.text) + "(build" + className($s.text) + "(childTreeNode));"); }
           { println("                continue;"); }
           { println("            }"); }
+          { created.add($s.text); }
+          { add("        if (type==" + $s.text + ") {"); }
+          { add("            node.add" + className($mn.text) + "((" + className($s.text) + ") attach(child));"); }
+          { add("            return;"); }
+          { add("        }"); }
           )+ ')' 
+          { copy("        for (" + className($mn.text) + " n: from.get" + className($mn.text) + "s()) {"); }
+          { copy("            to.add" + className($mn.text) + "((" + className($mn.text) + ") copy(n));"); }
+          { copy("        }"); }
         ;
 
 field : t=TYPE_NAME f=FIELD_NAME ';'
@@ -118,6 +118,40 @@ tokens {
     public java.util.List<LexError> getErrors() {
         return errors;
     }
+    private boolean reuseTokens;
+    private SourceToken reusedToken;
+    /**
+     * Emit every token into the same token object, for
+     * a token stream which copies each token out as it
+     * is emitted.
+     */
+    public void setReuseTokens(boolean reuseTokens) {
+        this.reuseTokens = reuseTokens;
+        reusedToken = null;
+    }
+    @Override public Token emit() {
+        SourceToken t;
+        if (!reuseTokens) {
+            t = new SourceToken(input, state.type, state.channel,
+                    state.tokenStartCharIndex, getCharIndex()-1);
+        }
+        else if (reusedToken==null) {
+            t = reusedToken = new SourceToken(input, state.type, state.channel,
+                    state.tokenStartCharIndex, getCharIndex()-1);
+        }
+        else {
+            t = reusedToken;
+            t.setType(state.type);
+            t.setChannel(state.channel);
+            t.setStartIndex(state.tokenStartCharIndex);
+            t.setStopIndex(getCharIndex()-1);
+        }
+        t.setLine(state.tokenStartLine);
+        t.setText(state.text);
+        t.setCharPositionInLine(state.tokenStartCharPositionInLine);
+        emit(t);
+        return t;
+    }
 }
 
 compilationUnit
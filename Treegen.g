@@ -6,6 +6,10 @@ grammar Treegen;
 @members {
 
     public java.io.PrintStream out = System.out;
+    
+    //the number of kinds of node generated so far, the
+    //bit of a kind being its number modulo 64
+    int kinds = 0;
 
     String className(String nodeName) { 
         return toJavaIdentifier(nodeName, true); 
@@ -49,6 +53,7 @@ grammar Treegen;
 nodeList : { 
            println("package com.redhat.ceylon.compiler.tree;\n");
            println("import static com.redhat.ceylon.compiler.tree.Walker.*;\n");
+           println("import org.antlr.runtime.Token;");
            println("import org.antlr.runtime.tree.CommonTree;\n");
            println("import java.util.*;\n");
            println("public class Tree {\n");
@@ -64,8 +69,14 @@ node : '^' '('
        { print(className($n.text)); }
        extendsNode
        { println(" {\n"); }
+       { println("        public static final long KIND = 1L << " + (kinds++ \% 64) + ";\n" ); }
        { println("        public " + className($n.text) + "(CommonTree treeNode) {" ); }
        { println("            super(treeNode);" ); }
+       { println("            addKind(KIND);" ); }
+       { println("        }\n" ); }
+       { println("        public " + className($n.text) + "(Token token) {" ); }
+       { println("            super(token);" ); }
+       { println("            addKind(KIND);" ); }
        { println("        }\n" ); }
        { println("        public void visit(Visitor visitor) {" ); }
        { println("            visitor.visit(this);" ); }
@@ -96,16 +107,16 @@ subnode :
           n=NODE_NAME '?'? f=FIELD_NAME ('(' NODE_NAME* ')')?
           { println("        private " + className($n.text) + " " + $f.text + ";"); }
           { println("        public " + className($n.text) + " get" + initialUpper($f.text) + "() { return " + $f.text + "; }"); }
-          { println("        public void set" + initialUpper($f.text) + "(" + className($n.text) + " node) { " + $f.text + " = node; }\n"); }
+          { println("        public void set" + initialUpper($f.text) + "(" + className($n.text) + " node) { " + $f.text + " = node; connect(node); }\n"); }
         | n=NODE_NAME '?'? ('(' NODE_NAME* ')')?
           { println("        private " + className($n.text) + " " + fieldName($n.text) + ";"); }
           { println("        public " + className($n.text) + " get" + className($n.text) + "() { return " + fieldName($n.text) + "; }"); }
-          { println("        public void set" + className($n.text) + "(" + className($n.text) + " node) { " + fieldName($n.text) + " = node; }\n"); }
+          { println("        public void set" + className($n.text) + "(" + className($n.text) + " node) { " + fieldName($n.text) + " = node; connect(node); }\n"); }
         | mn=NODE_NAME '*' ('(' NODE_NAME* ')')?
           { println("        private List<" + className($mn.text) + "> " + fieldName($mn.text) + 
                                "s = new ArrayList<" + className($mn.text) + ">();"); }
           { println("        public List<" + className($mn.text) + "> get" + className($mn.text) + "s() { return " + fieldName($mn.text) + "s; }"); }
-          { println("        public void add" + className($mn.text) + "(" + className($mn.text) + " node) { " + fieldName($mn.text) + "s.add(node); }\n"); }
+          { println("        public void add" + className($mn.text) + "(" + className($mn.text) + " node) { " + fieldName($mn.text) + "s.add(node); connect(node); }\n"); }
         ;
 
 field : t=TYPE_NAME f=FIELD_NAME 
@@ -6,6 +6,10 @@ grammar Visitorgen;
 @members {
 
     public java.io.PrintStream out = System.out;
+    
+    //generate the hooks of a Pass, instead of the
+    //methods of a Visitor
+    public boolean pass = false;
 
     String className(String nodeName) { 
         return toJavaIdentifier(nodeName, true); 
@@ -45,8 +49,93 @@ grammar Visitorgen;
 nodeList : { 
            println("package com.redhat.ceylon.compiler.tree;\n");
            println("import static com.redhat.ceylon.compiler.tree.Tree.*;\n");
-           println("public abstract class Visitor {\n");
-           println("    public void visitAny(Node that) { that.visitChildren(this); }\n");
+           if (pass) {
+               println("/**");
+               println(" * A pass over the tree which, unlike a Visitor, does");
+               println(" * not walk the tree itself, so that it may be run in");
+               println(" * the same walk as other passes by a FusedVisitor.");
+               println(" * The pass enters each node before its children, and");
+               println(" * exits it after them. As for a Visitor, the hooks");
+               println(" * for a node delegate to the hooks for the node it");
+               println(" * extends, and finally to enterAny() and exitAny().");
+               println(" */");
+               println("public abstract class Pass {\n");
+               println("    private final long interests;\n");
+               println("    /**");
+               println("     * A pass which is run over every subtree.");
+               println("     */");
+               println("    protected Pass() {");
+               println("        this(-1L);");
+               println("    }\n");
+               println("    /**");
+               println("     * A pass which only needs to be run over the subtrees");
+               println("     * containing a node of one of the given kinds, as for");
+               println("     * a Visitor. The pass must declare every kind for");
+               println("     * which it overrides a hook, unless the hook does no");
+               println("     * more than skip the children of the node.");
+               println("     */");
+               println("    protected Pass(long interests) {");
+               println("        this.interests = interests;");
+               println("    }\n");
+               println("    /**");
+               println("     * Whether the subtree contains a node of a kind the");
+               println("     * pass is interested in, so that it needs to be run");
+               println("     * over it.");
+               println("     */");
+               println("    public boolean isInterestedIn(Node that) {");
+               println("        return (that.getKinds() & interests)!=0;");
+               println("    }\n");
+               println("    /**");
+               println("     * Enter a node, returning false if the pass should");
+               println("     * not be run over its children.");
+               println("     */");
+               println("    public boolean enterAny(Node that) { return true; }\n");
+               println("    /**");
+               println("     * Exit a node, after its children. A node which");
+               println("     * was entered is always exited.");
+               println("     */");
+               println("    public void exitAny(Node that) {}\n");
+               println("    /**");
+               println("     * Whether the pass may only begin once the passes");
+               println("     * before it have been run over the whole tree,");
+               println("     * because it depends on what they record at nodes");
+               println("     * which it has not yet reached. Such a pass is");
+               println("     * never run in the same walk as the passes before");
+               println("     * it.");
+               println("     */");
+               println("    public boolean needsBarrier() { return false; }\n");
+           }
+           else {
+               println("public abstract class Visitor {\n");
+               println("    private final long interests;\n");
+               println("    /**");
+               println("     * A visitor which walks every subtree.");
+               println("     */");
+               println("    protected Visitor() {");
+               println("        this(-1L);");
+               println("    }\n");
+               println("    /**");
+               println("     * A visitor which only walks the subtrees containing");
+               println("     * a node of one of the given kinds, the KIND of each");
+               println("     * class of Tree, combined with |. A node is of the");
+               println("     * kind of its class and of the classes it extends.");
+               println("     * The visitor must declare every kind for which it");
+               println("     * overrides a visit method, unless the method does");
+               println("     * no more than skip the children of the node.");
+               println("     */");
+               println("    protected Visitor(long interests) {");
+               println("        this.interests = interests;");
+               println("    }\n");
+               println("    /**");
+               println("     * Whether the subtree contains a node of a kind the");
+               println("     * visitor is interested in, so that it needs to be");
+               println("     * walked.");
+               println("     */");
+               println("    public boolean isInterestedIn(Node that) {");
+               println("        return (that.getKinds() & interests)!=0;");
+               println("    }\n");
+               println("    public void visitAny(Node that) { that.visitChildren(this); }\n");
+           }
            }
            (DESCRIPTION? node)+ 
            EOF
@@ -56,9 +145,21 @@ nodeList : {
 node : '^' '('
        n=NODE_NAME
        (
-         { println("    public void visit(" + className($n.text) + " that) { visitAny(that); }"); }
+         { if (pass) {
+               println("    public boolean enter(" + className($n.text) + " that) { return enterAny(that); }");
+               println("    public void exit(" + className($n.text) + " that) { exitAny(that); }");
+           }
+           else {
+               println("    public void visit(" + className($n.text) + " that) { visitAny(that); }");
+           } }
        | ':' en=NODE_NAME
-         { println("    public void visit(" + className($n.text) + " that) { visit((" + className($en.text) + ") that); }"); }
+         { if (pass) {
+               println("    public boolean enter(" + className($n.text) + " that) { return enter((" + className($en.text) + ") that); }");
+               println("    public void exit(" + className($n.text) + " that) { exit((" + className($en.text) + ") that); }");
+           }
+           else {
+               println("    public void visit(" + className($n.text) + " that) { visit((" + className($en.text) + ") that); }");
+           } }
        ) 
        (DESCRIPTION? subnode)*
        (DESCRIPTION? field)*
@@ -6,6 +6,10 @@ grammar Walkergen;
 @members {
 
     public java.io.PrintStream out = System.out;
+    
+    //generate a FusedVisitor, which walks the tree
+    //with the Walker, instead of the Walker
+    public boolean fused = false;
 
     String className(String nodeName) { 
         return toJavaIdentifier(nodeName, true); 
@@ -44,13 +48,182 @@ grammar Walkergen;
        out.println(text); 
     }
     
+    void walk(String text) {
+       if (!fused) println(text);
+    }
+    
+    void printFused() {
+        println("/**");
+        println(" * Runs several passes over a tree in a single walk,");
+        println(" * entering each node with each pass in order, then");
+        println(" * walking its children, then exiting the node with");
+        println(" * each pass in the reverse order. A pass which is not");
+        println(" * to be run over the children of a node is not run");
+        println(" * again until the walk leaves the node, and if no");
+        println(" * pass is to be run over them, they are not walked.");
+        println(" * Nor is a subtree walked which contains no node of");
+        println(" * a kind any pass being run is interested in.");
+        println(" *");
+        println(" * A fused visitor may walk the tree iteratively, with");
+        println(" * a stack of its own instead of the call stack, so");
+        println(" * that the depth of the tree is not limited by the");
+        println(" * size of the thread stack. The passes are entered");
+        println(" * and exited in the same order either way.");
+        println(" */");
+        println("public class FusedVisitor extends Visitor {\n");
+        println("    private final Pass[] passes;");
+        println("    //for each pass, the node below which the pass is");
+        println("    //not being run, or null");
+        println("    private final Node[] skipping;\n");
+        println("    private boolean iterative;");
+        println("    //the nodes still to be entered or exited by an");
+        println("    //iterative walk, and which of them are to be exited");
+        println("    private Node[] stack = new Node[64];");
+        println("    private boolean[] exits = new boolean[64];");
+        println("    private int size;");
+        println("    private boolean walking;");
+        println("    private boolean exiting;");
+        println("    //pushes the children of a node on the stack");
+        println("    private final Visitor children = new Visitor() {");
+        println("        @Override public boolean isInterestedIn(Node that) {");
+        println("            return FusedVisitor.this.isInterestedIn(that);");
+        println("        }");
+        println("        @Override public void visitAny(Node that) {");
+        println("            push(that, false);");
+        println("        }");
+        println("    };\n");
+        println("    public FusedVisitor(Pass... passes) {");
+        println("        this.passes = passes;");
+        println("        skipping = new Node[passes.length];");
+        println("    }\n");
+        println("    /**");
+        println("     * Walk the tree iteratively, rather than recursively.");
+        println("     */");
+        println("    public void setIterative(boolean iterative) {");
+        println("        this.iterative = iterative;");
+        println("    }\n");
+        println("    /**");
+        println("     * Fuse the given passes, in order, into as few walks");
+        println("     * as possible, beginning a new walk with each pass");
+        println("     * which needs a barrier.");
+        println("     */");
+        println("    public static List<FusedVisitor> fuse(Pass... passes) {");
+        println("        return fuse(false, passes);");
+        println("    }\n");
+        println("    public static List<FusedVisitor> fuse(boolean iterative, Pass... passes) {");
+        println("        List<FusedVisitor> result = new ArrayList<FusedVisitor>();");
+        println("        int start = 0;");
+        println("        for (int i=1; i<=passes.length; i++) {");
+        println("            if (i==passes.length || passes[i].needsBarrier()) {");
+        println("                FusedVisitor fv = new FusedVisitor(Arrays.copyOfRange(passes, start, i));");
+        println("                fv.setIterative(iterative);");
+        println("                result.add(fv);");
+        println("                start = i;");
+        println("            }");
+        println("        }");
+        println("        return result;");
+        println("    }\n");
+        println("    /**");
+        println("     * Whether a pass which is being run is interested in");
+        println("     * the subtree, so that it needs to be walked.");
+        println("     */");
+        println("    @Override");
+        println("    public boolean isInterestedIn(Node that) {");
+        println("        for (int i=0; i<passes.length; i++) {");
+        println("            if (skipping[i]==null && passes[i].isInterestedIn(that)) {");
+        println("                return true;");
+        println("            }");
+        println("        }");
+        println("        return false;");
+        println("    }\n");
+        println("    private boolean isWalkingChildren() {");
+        println("        for (Node s: skipping) {");
+        println("            if (s==null) {");
+        println("                return true;");
+        println("            }");
+        println("        }");
+        println("        return false;");
+        println("    }\n");
+        println("    //walk the children of a node which was entered,");
+        println("    //returning true if, instead, the node was pushed");
+        println("    //on the stack, to be exited after its children");
+        println("    private boolean walk(Node that) {");
+        println("        if (!iterative) {");
+        println("            if (isWalkingChildren()) {");
+        println("                that.visitChildren(this);");
+        println("            }");
+        println("            return false;");
+        println("        }");
+        println("        push(that, true);");
+        println("        if (isWalkingChildren()) {");
+        println("            int first = size;");
+        println("            that.visitChildren(children);");
+        println("            //the first child is popped first");
+        println("            for (int i=first, j=size-1; i<j; i++, j--) {");
+        println("                Node n = stack[i];");
+        println("                stack[i] = stack[j];");
+        println("                stack[j] = n;");
+        println("            }");
+        println("        }");
+        println("        if (!walking) {");
+        println("            walking = true;");
+        println("            try {");
+        println("                while (size>0) {");
+        println("                    size--;");
+        println("                    Node n = stack[size];");
+        println("                    stack[size] = null;");
+        println("                    exiting = exits[size];");
+        println("                    n.visit(this);");
+        println("                }");
+        println("            }");
+        println("            finally {");
+        println("                Arrays.fill(stack, 0, size, null);");
+        println("                Arrays.fill(skipping, null);");
+        println("                size = 0;");
+        println("                walking = false;");
+        println("                exiting = false;");
+        println("            }");
+        println("        }");
+        println("        return true;");
+        println("    }\n");
+        println("    private void push(Node that, boolean exit) {");
+        println("        if (size==stack.length) {");
+        println("            stack = Arrays.copyOf(stack, size*2);");
+        println("            exits = Arrays.copyOf(exits, size*2);");
+        println("        }");
+        println("        stack[size] = that;");
+        println("        exits[size] = exit;");
+        println("        size++;");
+        println("    }\n");
+        println("    private boolean exiting(int i, Node that) {");
+        println("        if (skipping[i]==that) {");
+        println("            skipping[i] = null;");
+        println("            return true;");
+        println("        }");
+        println("        return skipping[i]==null;");
+        println("    }\n");
+    }
+    
 }
 
 nodeList : 
     {
     println("package com.redhat.ceylon.compiler.tree;\n");
     println("import static com.redhat.ceylon.compiler.tree.Tree.*;\n");
-    println("public class Walker {\n");
+    if (fused) {
+        println("import java.util.ArrayList;");
+        println("import java.util.Arrays;");
+        println("import java.util.List;\n");
+        printFused();
+    }
+    else {
+        println("public class Walker {\n");
+        println("    private static void visit(Visitor visitor, Node node) {");
+        println("        if (node!=null && visitor.isInterestedIn(node)) {");
+        println("            node.visit(visitor);");
+        println("        }");
+        println("    }\n");
+    }
     }
            (DESCRIPTION? node)+ 
            EOF
@@ -59,28 +232,45 @@ nodeList :
 
 node : '^' '('
        n=NODE_NAME 
-       { println("    public static void walk" + className($n.text) +"(Visitor visitor, " + className($n.text) + " node) {"); }
+       { walk("    public static void walk" + className($n.text) +"(Visitor visitor, " + className($n.text) + " node) {"); }
        extendsNode?
        (DESCRIPTION? subnode)*
        (DESCRIPTION? field)*
        ')'
-       { println("    }\n"); }
+       { walk("    }\n"); }
+       { if (fused) {
+             println("    @Override public void visit(" + className($n.text) + " that) {");
+             println("        if (!exiting) {");
+             println("            for (int i=0; i<passes.length; i++) {");
+             println("                if (skipping[i]==null && !passes[i].enter(that)) {");
+             println("                    skipping[i] = that;");
+             println("                }");
+             println("            }");
+             println("            if (walk(that)) {");
+             println("                return;");
+             println("            }");
+             println("        }");
+             println("        for (int i=passes.length-1; i>=0; i--) {");
+             println("            if (exiting(i, that)) {");
+             println("                passes[i].exit(that);");
+             println("            }");
+             println("        }");
+             println("    }\n");
+         } }
      ;
 
 extendsNode : ':' 
               n=NODE_NAME
-              { println("        walk" + className($n.text) +"(visitor, node);"); }
+              { walk("        walk" + className($n.text) +"(visitor, node);"); }
             ;
 
 subnode : n=NODE_NAME '?'? f=FIELD_NAME ('(' NODE_NAME* ')')?
-          { println("        if (node.get" + initialUpper($f.text) + "()!=null)"); }
-          { println("            node.get" + initialUpper($f.text) + "().visit(visitor);"); }
+          { walk("        visit(visitor, node.get" + initialUpper($f.text) + "());"); }
         | n=NODE_NAME '?'? ('(' NODE_NAME* ')')?
-          { println("        if (node.get" + className($n.text) + "()!=null)"); }
-          { println("            node.get" + className($n.text) + "().visit(visitor);"); }
+          { walk("        visit(visitor, node.get" + className($n.text) + "());"); }
         | mn=NODE_NAME '*' ('(' NODE_NAME* ')')? 
-          { println("        for (" + className($mn.text) + " subnode: node.get" + className($mn.text) +"s())"); }
-          { println("            subnode.visit(visitor);"); }
+          { walk("        for (int i=0; i<node.get" + className($mn.text) + "s().size(); i++)"); }
+          { walk("            visit(visitor, node.get" + className($mn.text) + "s().get(i));"); }
         ;
 
 field : t=TYPE_NAME f=FIELD_NAME ';'
@@ -0,0 +1,105 @@
+package com.redhat.ceylon.compiler.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import com.redhat.ceylon.compiler.analyzer.SubtypeChecker;
+import com.redhat.ceylon.compiler.driver.PhasedUnit;
+import com.redhat.ceylon.compiler.model.Module;
+import com.redhat.ceylon.compiler.model.Package;
+
+/**
+ * Checks that a unit with a deeply nested expression,
+ * a sum of many terms, makes it through every phase,
+ * checked from start to end and split by declaration,
+ * without overflowing the stack. The phases are run on
+ * a thread with a small stack of fixed size, so that
+ * the check does not depend on the default size of the
+ * platform. Exits with a non zero status if any phase
+ * overflows the stack.
+ *
+ * Usage:
+ *
+ * DeepExpressions [terms]
+ */
+public class DeepExpressions {
+
+    private static final long STACK_SIZE = 512*1024;
+
+    public static void main(String[] args) throws Exception {
+        int terms = args.length>0 ? Integer.parseInt(args[0]) : 60000;
+        File file = File.createTempFile("Sum", ".ceylon");
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(SyntheticSources.longSum(terms).getBytes("UTF-8"));
+            }
+            finally {
+                out.close();
+            }
+            int failures = 0;
+            failures += run("a sum of " + terms + " terms", file, null);
+            ForkJoinPool pool = new ForkJoinPool(2);
+            try {
+                failures += run("a sum of " + terms + " terms, split", file, pool);
+            }
+            finally {
+                pool.shutdown();
+            }
+            if (failures>0) {
+                System.out.println(failures + " checks failed");
+                System.exit(1);
+            }
+            System.out.println("All checks passed");
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    private static int run(String name, final File file, final ForkJoinPool pool)
+            throws Exception {
+        final Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, new Runnable() {
+            @Override public void run() {
+                try {
+                    PhasedUnit pu = new PhasedUnit(file, newPackage());
+                    if (pool!=null) {
+                        pu.setSplitPool(pool, 1);
+                    }
+                    pu.parse();
+                    pu.declare();
+                    pu.resolveTypes();
+                    pu.freeze();
+                    pu.analyseExpressions(new SubtypeChecker());
+                    pu.getPositionIndex();
+                }
+                catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        }, "deep", STACK_SIZE);
+        thread.start();
+        thread.join();
+        if (failure[0]!=null) {
+            System.out.println("FAILED: " + name + ": " + failure[0]);
+            return 1;
+        }
+        System.out.println("passed: " + name);
+        return 0;
+    }
+
+    private static Package newPackage() {
+        Package p = new Package();
+        p.setName(Arrays.asList(new String[]{"test"}));
+        Module m = new Module();
+        m.setName(Arrays.asList(new String[]{"test"}));
+        p.setModule(m);
+        m.getPackages().add(p);
+        return p;
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.redhat.ceylon.compiler.bench;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.redhat.ceylon.compiler.analyzer.SubtypeChecker;
+import com.redhat.ceylon.compiler.driver.PhasedUnit;
+import com.redhat.ceylon.compiler.model.Module;
+import com.redhat.ceylon.compiler.model.Package;
+import com.redhat.ceylon.compiler.tree.Node;
+import com.redhat.ceylon.compiler.tree.Tree.CompilationUnit;
+import com.redhat.ceylon.compiler.tree.Visitor;
+
+/**
+ * Measures the heap retained by the trees of a set of
+ * sources, first as parsed, then once they have been
+ * analysed, by keeping many copies of the trees alive
+ * and comparing the heap in use, after collection,
+ * with the heap in use before.
+ *
+ * Usage:
+ *
+ * FootprintBenchmark [-copies n] [dir...]
+ *
+ * With no directories, the checked in corpus is
+ * measured. A source for which a phase fails is kept
+ * as far as it got.
+ */
+public class FootprintBenchmark {
+
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int copies = 20;
+        List<File> files = new ArrayList<File>();
+        for (int i=0; i<args.length; i++) {
+            if (args[i].equals("-copies")) {
+                copies = Integer.parseInt(args[++i]);
+            }
+            else {
+                collect(new File(args[i]), files);
+            }
+        }
+        if (files.isEmpty()) {
+            collect(new File("corpus"), files);
+        }
+
+        int nodes = 0;
+        for (CompilationUnit cu: build(files, false)) {
+            NodeCounter counter = new NodeCounter();
+            cu.visit(counter);
+            nodes += counter.count;
+        }
+        System.out.printf("%-12s %6s %8s %10s %12s%n", "trees", "files", "nodes",
+                "MB", "bytes/node");
+        for (boolean analyse: new boolean[] { false, true }) {
+            //warm up, so that classes loaded on first use
+            //are not counted
+            build(files, analyse);
+            long before = usedHeap();
+            List<List<CompilationUnit>> retained = new ArrayList<List<CompilationUnit>>();
+            for (int i=0; i<copies; i++) {
+                retained.add(build(files, analyse));
+            }
+            long bytes = (usedHeap() - before) / copies;
+            System.out.printf("%-12s %6d %8d %10.2f %12.1f%n",
+                    analyse ? "analysed" : "parsed", files.size(), nodes,
+                    bytes / (1024.0*1024.0), (double) bytes / nodes);
+            retained.clear();
+        }
+    }
+
+    private static List<CompilationUnit> build(List<File> files, boolean analyse) {
+        List<CompilationUnit> result = new ArrayList<CompilationUnit>();
+        for (File file: files) {
+            PhasedUnit pu = new PhasedUnit(file, newPackage());
+            try {
+                pu.parse();
+                if (analyse) {
+                    pu.declare();
+                    pu.resolveTypes();
+                    pu.analyseExpressions(new SubtypeChecker());
+                }
+            }
+            catch (Exception e) {
+                //keep the tree as far as it got
+            }
+            if (pu.getCompilationUnit()!=null) {
+                result.add(pu.getCompilationUnit());
+            }
+        }
+        return result;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i=0; i<5; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+
+    private static Package newPackage() {
+        Package p = new Package();
+        p.setName(Arrays.asList(new String[]{"test"}));
+        Module m = new Module();
+        m.setName(Arrays.asList(new String[]{"test"}));
+        p.setModule(m);
+        m.getPackages().add(p);
+        return p;
+    }
+
+    private static void collect(File file, List<File> files) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            Arrays.sort(children, new Comparator<File>() {
+                @Override public int compare(File x, File y) {
+                    return x.getName().compareTo(y.getName());
+                }
+            });
+            for (File f: children) {
+                collect(f, files);
+            }
+        }
+        else if (file.getName().endsWith(".ceylon")) {
+            files.add(file);
+        }
+    }
+
+    private static final class NodeCounter extends Visitor {
+        int count;
+
+        @Override
+        public void visitAny(Node that) {
+            count++;
+            super.visitAny(that);
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.redhat.ceylon.compiler.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import com.redhat.ceylon.compiler.driver.IncrementalUnits;
+import com.redhat.ceylon.compiler.driver.PhasedUnit;
+import com.redhat.ceylon.compiler.model.Module;
+import com.redhat.ceylon.compiler.model.Package;
+import com.redhat.ceylon.compiler.tree.AnalysisError;
+
+/**
+ * Replays sequences of edits to the files of a package
+ * against a resident IncrementalUnits, as the daemon
+ * does, and checks after each edit that the errors it
+ * reports are the errors a cold check of the same files
+ * reports. Exits with a non zero status if any scenario
+ * fails.
+ *
+ * Usage:
+ *
+ * IncrementalScenarios
+ */
+public class IncrementalScenarios {
+
+    public static void main(String[] args) throws Exception {
+        int failures = 0;
+        failures += run("add a declaration a unit failed to resolve",
+                edit("A.ceylon", "class A() {}\n",
+                     "B.ceylon", "class B() {\n    Foo f = Foo();\n}\n"),
+                edit("A.ceylon", "class A() {}\nclass Foo() {}\n"),
+                edit("A.ceylon", "class A() {}\n"));
+        failures += run("add and remove a file declaring a name",
+                edit("B.ceylon", "class B() {\n    Foo f = Foo();\n}\n"),
+                edit("A.ceylon", "class Foo() {}\n"),
+                edit("A.ceylon", null));
+        failures += run("change the type of an attribute",
+                edit("A.ceylon", "class Foo() {}\nclass Bar() {}\nFoo foo = Foo();\n",
+                     "B.ceylon", "class B() {\n    Foo f = foo;\n}\n"),
+                edit("A.ceylon", "class Foo() {}\nclass Bar() {}\nBar foo = Bar();\n"));
+        if (failures>0) {
+            System.out.println(failures + " scenarios failed");
+            System.exit(1);
+        }
+        System.out.println("All scenarios passed");
+    }
+
+    /**
+     * The files to write, by name, with their contents,
+     * or null for a file to delete.
+     */
+    private static String[] edit(String... namesAndContents) {
+        return namesAndContents;
+    }
+
+    private static int run(String name, String[]... edits) throws Exception {
+        File dir = Files.createTempDirectory("scenario").toFile();
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            IncrementalUnits units = new IncrementalUnits(pool);
+            Package pkg = newPackage();
+            for (int step=0; step<edits.length; step++) {
+                String[] edit = edits[step];
+                for (int i=0; i<edit.length; i+=2) {
+                    File file = new File(dir, edit[i]);
+                    if (edit[i+1]==null) {
+                        file.delete();
+                        units.remove(file);
+                    }
+                    else {
+                        write(file, edit[i+1]);
+                        units.add(file, pkg);
+                    }
+                }
+                units.check();
+                Map<String, List<String>> incremental = getErrors(units);
+                Map<String, List<String>> cold = checkCold(dir, pool);
+                if (!incremental.equals(cold)) {
+                    System.out.println("FAILED: " + name + ", after edit " + (step+1));
+                    System.out.println("  incremental: " + incremental);
+                    System.out.println("  cold:        " + cold);
+                    return 1;
+                }
+            }
+            System.out.println("passed: " + name);
+            return 0;
+        }
+        finally {
+            pool.shutdown();
+            for (File f: dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static Map<String, List<String>> checkCold(File dir, ForkJoinPool pool)
+            throws Exception {
+        IncrementalUnits units = new IncrementalUnits(pool);
+        Package pkg = newPackage();
+        File[] files = dir.listFiles();
+        Arrays.sort(files);
+        for (File f: files) {
+            units.add(f, pkg);
+        }
+        units.check();
+        return getErrors(units);
+    }
+
+    private static Map<String, List<String>> getErrors(IncrementalUnits units) {
+        Map<String, List<String>> errors = new TreeMap<String, List<String>>();
+        for (PhasedUnit pu: units.getUnits()) {
+            List<String> list = new ArrayList<String>();
+            list.addAll(pu.getLexErrors());
+            list.addAll(pu.getParseErrors());
+            for (AnalysisError ae: pu.getAnalysisErrors()) {
+                list.add(ae.toString());
+            }
+            errors.put(pu.getFile().getName(), list);
+        }
+        return errors;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static Package newPackage() {
+        Package p = new Package();
+        p.setName(Arrays.asList(new String[]{"test"}));
+        Module m = new Module();
+        m.setName(Arrays.asList(new String[]{"test"}));
+        p.setModule(m);
+        m.getPackages().add(p);
+        return p;
+    }
+
+}
@@ -0,0 +1,355 @@
+package com.redhat.ceylon.compiler.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenSource;
+import org.antlr.runtime.tree.CommonTree;
+
+import com.redhat.ceylon.compiler.analyzer.DeclarationVisitor;
+import com.redhat.ceylon.compiler.analyzer.ExpressionVisitor;
+import com.redhat.ceylon.compiler.analyzer.SubtypeChecker;
+import com.redhat.ceylon.compiler.analyzer.TypeVisitor;
+import com.redhat.ceylon.compiler.model.Module;
+import com.redhat.ceylon.compiler.model.Package;
+import com.redhat.ceylon.compiler.model.Unit;
+import com.redhat.ceylon.compiler.parser.CeylonLexer;
+import com.redhat.ceylon.compiler.parser.CeylonParser;
+import com.redhat.ceylon.compiler.tree.Builder;
+import com.redhat.ceylon.compiler.tree.FusedVisitor;
+import com.redhat.ceylon.compiler.tree.NodeTreeAdaptor;
+import com.redhat.ceylon.compiler.tree.Tree.CompilationUnit;
+
+/**
+ * Measures the throughput and allocation rate of each
+ * phase of the pipeline separately: lexing, parsing,
+ * tree building, and the declaration, type and
+ * expression passes. Parsing with the typesafe tree
+ * built directly by the parser is measured as well,
+ * to compare with parsing and building separately.
+ * Each phase is timed on its own, with the results of
+ * the earlier phases prepared ahead of time, over a
+ * set of inputs which are either directories of
+ * Ceylon sources or synthetic sources.
+ *
+ * Usage:
+ *
+ * PhaseBenchmark [-warmup n] [-iterations n] [-csv file] [dir...]
+ *
+ * With no directories, the checked in corpus and the
+ * synthetic inputs are measured. A source for which a
+ * phase fails is left out of that phase and of the
+ * phases after it.
+ */
+public class PhaseBenchmark {
+
+    enum Phase { LEX, PARSE, BUILD, PARSE_AND_BUILD, DECLARE, TYPES, EXPRESSIONS }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int warmup = 5;
+        int iterations = 10;
+        PrintStream csv = null;
+        List<Input> inputs = new ArrayList<Input>();
+        for (int i=0; i<args.length; i++) {
+            if (args[i].equals("-warmup")) {
+                warmup = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-iterations")) {
+                iterations = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-csv")) {
+                csv = new PrintStream(args[++i]);
+            }
+            else {
+                inputs.add(Input.fromDirectory(new File(args[i])));
+            }
+        }
+        if (inputs.isEmpty()) {
+            for (String dir: new String[] { "corpus/tests", "corpus/basic/lang",
+                    "corpus/ui", "corpus/persistence" }) {
+                inputs.add(Input.fromDirectory(new File(dir)));
+            }
+            inputs.add(new Input("synthetic/10k-lines").add("Long.ceylon",
+                    SyntheticSources.longFile(10000)));
+            inputs.add(new Input("synthetic/deep-nesting").add("Deep.ceylon",
+                    SyntheticSources.deepNesting(40)));
+            inputs.add(new Input("synthetic/wide-class").add("Wide.ceylon",
+                    SyntheticSources.wideClass(500)));
+        }
+
+        System.out.printf("%-24s %-12s %6s %8s %12s %12s %12s %12s%n",
+                "input", "phase", "files", "lines", "ms/op", "lines/s",
+                "KB/op", "MB/s alloc");
+        if (csv!=null) {
+            csv.println("input,phase,files,lines,nanosPerOp,bytesPerOp");
+        }
+        for (Input input: inputs) {
+            List<Source> sources = input.prepare();
+            for (Phase phase: Phase.values()) {
+                List<Source> measured = new ArrayList<Source>();
+                for (Source s: sources) {
+                    if (s.failedPhase==null || s.failedPhase.compareTo(phase)>0) {
+                        measured.add(s);
+                    }
+                }
+                for (int i=0; i<warmup; i++) {
+                    run(phase, measured);
+                }
+                long nanos = 0;
+                long bytes = 0;
+                for (int i=0; i<iterations; i++) {
+                    long[] result = run(phase, measured);
+                    nanos += result[0];
+                    bytes += result[1];
+                }
+                nanos /= iterations;
+                bytes /= iterations;
+                int lines = 0;
+                for (Source s: measured) {
+                    lines += s.lines;
+                }
+                double seconds = nanos / 1e9;
+                System.out.printf("%-24s %-12s %6d %8d %12.3f %12.0f %12.1f %12.1f%n",
+                        input.name, phase.name().toLowerCase(), measured.size(), lines,
+                        nanos / 1e6, seconds==0 ? 0 : lines / seconds,
+                        bytes / 1024.0, seconds==0 ? 0 : bytes / seconds / (1024*1024));
+                if (csv!=null) {
+                    csv.println(input.name + "," + phase.name().toLowerCase() + "," +
+                            measured.size() + "," + lines + "," + nanos + "," + bytes);
+                }
+            }
+        }
+        if (csv!=null) {
+            csv.close();
+        }
+    }
+
+    /**
+     * Run the phase once over all sources, returning
+     * the time spent and bytes allocated in the phase
+     * itself.
+     */
+    private static long[] run(Phase phase, List<Source> sources) throws Exception {
+        long nanos = 0;
+        long bytes = 0;
+        for (Source s: sources) {
+            Package p = null;
+            if (phase.compareTo(Phase.DECLARE)>=0) {
+                p = newPackage();
+            }
+            Unit unit = null;
+            if (phase.compareTo(Phase.DECLARE)>0) {
+                unit = declare(s.compilationUnit, p);
+            }
+            if (phase.compareTo(Phase.TYPES)>0) {
+                s.compilationUnit.visit(new FusedVisitor(new TypeVisitor(unit)));
+            }
+            long startBytes = allocatedBytes();
+            long start = System.nanoTime();
+            switch (phase) {
+            case LEX:
+                lex(s.text);
+                break;
+            case PARSE:
+                parse(s.tokens);
+                break;
+            case BUILD:
+                new Builder().buildCompilationUnit(s.tree);
+                break;
+            case PARSE_AND_BUILD:
+                parseAndBuild(s.tokens);
+                break;
+            case DECLARE:
+                declare(s.compilationUnit, p);
+                break;
+            case TYPES:
+                s.compilationUnit.visit(new FusedVisitor(new TypeVisitor(unit)));
+                break;
+            case EXPRESSIONS:
+                s.compilationUnit.visit(new FusedVisitor(new ExpressionVisitor(new SubtypeChecker())));
+                break;
+            }
+            nanos += System.nanoTime() - start;
+            bytes += allocatedBytes() - startBytes;
+        }
+        return new long[] { nanos, bytes };
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static List<Token> lex(String text) {
+        CeylonLexer lexer = new CeylonLexer(new ANTLRStringStream(text));
+        List<Token> tokens = new ArrayList<Token>();
+        Token t;
+        do {
+            t = lexer.nextToken();
+            tokens.add(t);
+        }
+        while (t.getType()!=Token.EOF);
+        return tokens;
+    }
+
+    private static CeylonParser parse(List<Token> tokens) throws Exception {
+        CeylonParser parser = new CeylonParser(new CommonTokenStream(source(tokens)));
+        parser.compilationUnit();
+        return parser;
+    }
+
+    private static CompilationUnit parseAndBuild(List<Token> tokens) throws Exception {
+        CeylonParser parser = new CeylonParser(new CommonTokenStream(source(tokens)));
+        NodeTreeAdaptor adaptor = new NodeTreeAdaptor();
+        parser.setTreeAdaptor(adaptor);
+        return adaptor.getCompilationUnit(parser.compilationUnit().getTree());
+    }
+
+    private static TokenSource source(final List<Token> tokens) {
+        return new TokenSource() {
+            int i = 0;
+            @Override public Token nextToken() {
+                return tokens.get( Math.min(i++, tokens.size()-1) );
+            }
+            @Override public String getSourceName() {
+                return null;
+            }
+        };
+    }
+
+    private static Package newPackage() {
+        Package p = new Package();
+        p.setName(Arrays.asList(new String[]{"test"}));
+        Module m = new Module();
+        m.setName(Arrays.asList(new String[]{"test"}));
+        p.setModule(m);
+        m.getPackages().add(p);
+        return p;
+    }
+
+    private static Unit declare(CompilationUnit cu, Package p) {
+        DeclarationVisitor dv = new DeclarationVisitor(p);
+        cu.visit(new FusedVisitor(dv));
+        return dv.getCompilationUnit();
+    }
+
+    /**
+     * A source, together with the results of each phase,
+     * computed once so that each phase can be measured
+     * on its own.
+     */
+    static class Source {
+        final String name;
+        final String text;
+        final int lines;
+        List<Token> tokens;
+        CommonTree tree;
+        CompilationUnit compilationUnit;
+        Phase failedPhase;
+
+        Source(String name, String text) {
+            this.name = name;
+            this.text = text;
+            lines = SyntheticSources.lineCount(text);
+        }
+
+        void prepare() {
+            Phase phase = Phase.LEX;
+            try {
+                tokens = lex(text);
+                phase = Phase.PARSE;
+                CeylonParser.compilationUnit_return r =
+                        new CeylonParser(new CommonTokenStream(
+                                new CeylonLexer(new ANTLRStringStream(text))))
+                        .compilationUnit();
+                tree = (CommonTree) r.getTree();
+                phase = Phase.BUILD;
+                compilationUnit = new Builder().buildCompilationUnit(tree);
+                phase = Phase.DECLARE;
+                Unit unit = declare(compilationUnit, newPackage());
+                phase = Phase.TYPES;
+                compilationUnit.visit(new FusedVisitor(new TypeVisitor(unit)));
+                phase = Phase.EXPRESSIONS;
+                compilationUnit.visit(new FusedVisitor(new ExpressionVisitor(new SubtypeChecker())));
+            }
+            catch (Exception e) {
+                failedPhase = phase;
+            }
+        }
+    }
+
+    static class Input {
+        final String name;
+        final List<Source> sources = new ArrayList<Source>();
+
+        Input(String name) {
+            this.name = name;
+        }
+
+        Input add(String name, String text) {
+            sources.add(new Source(name, text));
+            return this;
+        }
+
+        List<Source> prepare() {
+            for (Source s: sources) {
+                s.prepare();
+            }
+            return sources;
+        }
+
+        static Input fromDirectory(File dir) throws IOException {
+            Input input = new Input(dir.getPath());
+            collect(dir, input);
+            return input;
+        }
+
+        private static void collect(File file, Input input) throws IOException {
+            if (file.isDirectory()) {
+                File[] files = file.listFiles();
+                Arrays.sort(files, new Comparator<File>() {
+                    @Override public int compare(File x, File y) {
+                        return x.getName().compareTo(y.getName());
+                    }
+                });
+                for (File f: files) {
+                    collect(f, input);
+                }
+            }
+            else if (file.getName().endsWith(".ceylon")) {
+                input.add(file.getName(), read(file));
+            }
+        }
+
+        private static String read(File file) throws IOException {
+            Reader reader = new InputStreamReader(new FileInputStream(file));
+            try {
+                StringBuilder sb = new StringBuilder();
+                char[] buffer = new char[8192];
+                int n;
+                while ((n = reader.read(buffer))>0) {
+                    sb.append(buffer, 0, n);
+                }
+                return sb.toString();
+            }
+            finally {
+                reader.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.redhat.ceylon.compiler.bench;
+
+/**
+ * Generates scaled-up Ceylon sources which make it
+ * through every phase of the pipeline, since they only
+ * refer to types they declare themselves.
+ */
+public class SyntheticSources {
+
+    /**
+     * A chain of classes, each extending the previous
+     * one, of about ten lines each.
+     */
+    public static String longFile(int lines) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("class C0() {\n}\n");
+        for (int i=1; lineCount(sb)<lines; i++) {
+            String c = "C" + i;
+            String p = "C" + (i-1);
+            sb.append("class ").append(c).append("() extends ").append(p).append("() {\n");
+            sb.append("    ").append(p).append(" parent = ").append(p).append("();\n");
+            sb.append("    ").append(c).append(" self = this;\n");
+            sb.append("    ").append(c).append(" echo(").append(c).append(" x) {\n");
+            sb.append("        ").append(c).append(" y = x;\n");
+            sb.append("        return y;\n");
+            sb.append("    }\n");
+            sb.append("    ").append(p).append(" up(").append(p).append(" x) {\n");
+            sb.append("        return x;\n");
+            sb.append("    }\n");
+            sb.append("}\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Classes nested inside classes, each level with an
+     * attribute whose initializer is a deeply
+     * parenthesized expression.
+     */
+    public static String deepNesting(int depth) {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<depth; i++) {
+            indent(sb, i).append("class N").append(i).append("() {\n");
+            indent(sb, i+1).append("N").append(i).append(" self = ");
+            for (int j=0; j<depth; j++) sb.append('(');
+            sb.append("this");
+            for (int j=0; j<depth; j++) sb.append(')');
+            sb.append(";\n");
+        }
+        for (int i=depth-1; i>=0; i--) {
+            indent(sb, i).append("}\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A class with an attribute whose initializer is a
+     * sum of the given number of terms, which the tree
+     * nests one level deeper for each term.
+     */
+    public static String longSum(int terms) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("class Sum() {\n");
+        sb.append("    Sum sum = this");
+        for (int i=1; i<terms; i++) {
+            sb.append(i%16==0 ? "\n        + this" : " + this");
+        }
+        sb.append(";\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * A single class with the given number of
+     * attributes and methods.
+     */
+    public static String wideClass(int members) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("class Wide() {\n");
+        for (int i=0; i<members; i++) {
+            sb.append("    Wide a").append(i).append(" = this;\n");
+            sb.append("    Wide m").append(i).append("(Wide x) {\n");
+            sb.append("        return a").append(i).append(";\n");
+            sb.append("    }\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static StringBuilder indent(StringBuilder sb, int depth) {
+        for (int i=0; i<depth; i++) sb.append("    ");
+        return sb;
+    }
+
+    static int lineCount(CharSequence text) {
+        int lines = 0;
+        for (int i=0; i<text.length(); i++) {
+            if (text.charAt(i)=='\n') lines++;
+        }
+        return lines;
+    }
+
+}
@@ -1,99 +1,298 @@
-
-
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
-import org.antlr.runtime.ANTLRInputStream;
-import org.antlr.runtime.CommonTokenStream;
-import org.antlr.runtime.tree.CommonTree;
-
-import com.redhat.ceylon.compiler.analyzer.DeclarationVisitor;
-import com.redhat.ceylon.compiler.analyzer.ExpressionVisitor;
-import com.redhat.ceylon.compiler.analyzer.TypeVisitor;
+import com.redhat.ceylon.compiler.analyzer.SubtypeChecker;
+import com.redhat.ceylon.compiler.driver.Daemon;
+import com.redhat.ceylon.compiler.driver.DeclarationCache;
+import com.redhat.ceylon.compiler.driver.DeclarationCache.CachedUnit;
+import com.redhat.ceylon.compiler.driver.Metrics;
+import com.redhat.ceylon.compiler.driver.PhasedUnit;
+import com.redhat.ceylon.compiler.driver.PhasedUnits;
 import com.redhat.ceylon.compiler.model.Module;
 import com.redhat.ceylon.compiler.model.Package;
-import com.redhat.ceylon.compiler.parser.CeylonLexer;
-import com.redhat.ceylon.compiler.parser.CeylonParser;
-import com.redhat.ceylon.compiler.parser.LexError;
-import com.redhat.ceylon.compiler.parser.ParseError;
-import com.redhat.ceylon.compiler.tree.Builder;
-import com.redhat.ceylon.compiler.tree.Tree.CompilationUnit;
-import com.redhat.ceylon.compiler.tree.Visitor;
+import com.redhat.ceylon.compiler.parser.DecisionProfiler;
+import com.redhat.ceylon.compiler.tree.AnalysisError;
+import com.redhat.ceylon.compiler.tree.FusedVisitor;
 
 public class Main {
 
+    private static Metrics metrics;
+    private static boolean cache;
+    private static DecisionProfiler profiler;
+    private static int splitThreshold;
+    private static ForkJoinPool splitPool;
+
     public static void main(String[] args) throws Exception {
-        String path;
-        if ( args.length==0 ) {
-            path = "corpus";
+        String path = "corpus";
+        boolean parallel = false;
+        boolean daemon = false;
+        int port = 0;
+        String metricsFile = null;
+        for (int i=0; i<args.length; i++) {
+            if ( args[i].equals("-parallel") ) {
+                parallel = true;
+            }
+            else if ( args[i].equals("-cache") ) {
+                parallel = true;
+                cache = true;
+            }
+            else if ( args[i].equals("-daemon") ) {
+                daemon = true;
+            }
+            else if ( args[i].equals("-port") ) {
+                port = Integer.parseInt(args[++i]);
+            }
+            else if ( args[i].equals("-profile") ) {
+                profiler = new DecisionProfiler();
+            }
+            else if ( args[i].equals("-split") ) {
+                splitThreshold = Integer.parseInt(args[++i]);
+                splitPool = new ForkJoinPool();
+            }
+            else if ( args[i].equals("-metrics") ) {
+                metricsFile = args[++i];
+                metrics = new Metrics();
+            }
+            else {
+                path = args[i];
+            }
         }
-        else {
-            path = args[0];
+        try {
+            if (daemon) {
+                daemon( new File(path), port );
+            }
+            else if (parallel) {
+                parallel( new File(path) );
+            }
+            else {
+                fileOrDir( new File(path) );
+            }
+        }
+        finally {
+            if (profiler!=null) {
+                profiler.printReport(System.out, 25);
+            }
+            if (metrics!=null) {
+                metrics.printSummary(System.out, 10);
+                PrintStream out = new PrintStream(metricsFile);
+                try {
+                    metrics.printCsv(out);
+                }
+                finally {
+                    out.close();
+                }
+            }
         }
-        fileOrDir( new File(path) );
     }
-    
+
     private static void file(File file) throws Exception {
         if ( file.getName().endsWith(".ceylon") ) {
-        
+
             System.out.println("Parsing " + file.getName());
-            InputStream is = new FileInputStream( file );
-            ANTLRInputStream input = new ANTLRInputStream(is);
-            CeylonLexer lexer = new CeylonLexer(input);
-    
-            CommonTokenStream tokens = new CommonTokenStream(lexer);
-    
-            CeylonParser parser = new CeylonParser(tokens);
-            CeylonParser.compilationUnit_return r = parser.compilationUnit();
-    
-        	List<LexError> lexerErrors = lexer.getErrors();
-        	for (LexError le: lexerErrors) {
-                System.out.println("Lexer error: " + le.getMessage(lexer));
-        	}
-
-        	List<ParseError> parserErrors = parser.getErrors();
-        	for (ParseError pe: parserErrors) {
-                System.out.println("Parser error: " + pe.getMessage(parser));
-        	}
-
-        	CommonTree t = (CommonTree)r.getTree();
-            
-            CompilationUnit cu = new Builder().buildCompilationUnit(t);
-            
-            Visitor v = new PrintVisitor();
-            cu.visit(v);
-            
+
             Package p = new Package();
             p.setName(Arrays.asList(new String[]{"test"}));
             Module m = new Module();
             m.setName(Arrays.asList(new String[]{"test"}));
             p.setModule(m);
             m.getPackages().add(p);
-            
-            DeclarationVisitor dv = new DeclarationVisitor(p);
-            cu.visit(dv);
-            
-            cu.visit(new TypeVisitor(dv.getCompilationUnit()));
-    
-            cu.visit(new ExpressionVisitor());
-        
-        }
-        
+
+            PhasedUnit pu = new PhasedUnit(file, p);
+            pu.setPhaseListener(metrics);
+            pu.setDecisionProfiler(profiler);
+            if (splitThreshold>0) {
+                pu.setSplitPool(splitPool, splitThreshold);
+            }
+            pu.parse();
+            //print the tree in a walk of its own, so that
+            //printing is not counted in any phase
+            print(pu);
+
+            pu.declare();
+            pu.resolveTypes();
+            pu.freeze();
+            pu.analyseExpressions(new SubtypeChecker());
+            printAnalysisErrors(pu);
+
+        }
+
+    }
+
+    private static void print(PhasedUnit pu) {
+        printErrors(pu);
+        FusedVisitor fv = new FusedVisitor(new PrintVisitor());
+        //walked iteratively, so that deeply nested
+        //expressions cannot overflow the stack
+        fv.setIterative(true);
+        pu.getCompilationUnit().visit(fv);
+    }
+
+    private static void printErrors(PhasedUnit pu) {
+        for (String le: pu.getLexErrors()) {
+            System.out.println("Lexer error: " + le);
+        }
+        for (String pe: pu.getParseErrors()) {
+            System.out.println("Parser error: " + pe);
+        }
+    }
+
+    private static void printAnalysisErrors(PhasedUnit pu) {
+        for (AnalysisError ae: pu.getAnalysisErrors()) {
+            System.out.println("Error in " + pu.getFile().getName() + ": " + ae);
+        }
+    }
+
+    private static void printCachedErrors(CachedUnit cu) {
+        for (String le: cu.getLexErrors()) {
+            System.out.println("Lexer error: " + le);
+        }
+        for (String pe: cu.getParseErrors()) {
+            System.out.println("Parser error: " + pe);
+        }
+    }
+
+    private static void printCachedAnalysisErrors(CachedUnit cu) {
+        for (String ae: cu.getAnalysisErrors()) {
+            System.out.println("Error in " + cu.getFileName() + ": " + ae);
+        }
     }
-    
+
     private static void fileOrDir(File file) throws Exception {
-        if (file.isDirectory()) 
+        if (file.isDirectory())
             dir(file);
         else
             file(file);
     }
 
     private static void dir(File dir) throws Exception {
-        for (File file: dir.listFiles()) 
+        for (File file: dir.listFiles())
             fileOrDir(file);
     }
 
+    /**
+     * Check all files under the given path together,
+     * with one package per directory, running each
+     * phase across all files before the next phase.
+     * With -cache, the declarations of the packages
+     * which other packages depend upon, and which have
+     * not changed since the last run, are loaded from
+     * the cache in their directory instead, and the
+     * errors found in them are reported again, in the
+     * order of the units, as in a run without the cache.
+     */
+    private static void parallel(File root) throws Exception {
+        Module m = new Module();
+        m.setName(Arrays.asList(new String[]{"test"}));
+        List<PhasedUnit> all = new ArrayList<PhasedUnit>();
+        collect(root, new ArrayList<String>(), m, all);
+        List<PhasedUnit> list = all;
+
+        DeclarationCache declarationCache = null;
+        if (cache) {
+            declarationCache = new DeclarationCache();
+            list = declarationCache.load(list);
+            for (Package p: declarationCache.getLoadedPackages()) {
+                System.out.println("Loaded " + p + " from cache");
+            }
+        }
+
+        PhasedUnits units = new PhasedUnits(new ForkJoinPool());
+        units.setPhaseListener(metrics);
+        units.setSplitThreshold(splitThreshold);
+        for (PhasedUnit pu: list) {
+            pu.setDecisionProfiler(profiler);
+            units.add(pu);
+        }
+
+        units.parse();
+        for (PhasedUnit pu: all) {
+            CachedUnit cu = getCachedUnit(declarationCache, pu);
+            if (cu==null) {
+                System.out.println("Parsing " + pu.getFile().getName());
+                print(pu);
+            }
+            else {
+                System.out.println("Loaded " + cu.getFileName() + " from cache");
+                printCachedErrors(cu);
+            }
+        }
+
+        units.declare();
+        units.resolveTypes();
+        units.freeze();
+        units.analyseExpressions();
+        for (PhasedUnit pu: all) {
+            CachedUnit cu = getCachedUnit(declarationCache, pu);
+            if (cu==null) {
+                printAnalysisErrors(pu);
+            }
+            else {
+                printCachedAnalysisErrors(cu);
+            }
+        }
+        if (declarationCache!=null) {
+            declarationCache.save(units.getUnits());
+        }
+    }
+
+    private static CachedUnit getCachedUnit(DeclarationCache declarationCache, 
+            PhasedUnit pu) {
+        return declarationCache==null ? null : declarationCache.getCachedUnit(pu);
+    }
+
+    /**
+     * Serve check requests for the files under the
+     * given path, keeping their model resident, from
+     * the standard input, or from connections to the
+     * given port of the loopback interface.
+     */
+    private static void daemon(File root, int port) throws Exception {
+        Daemon daemon = new Daemon(root, new ForkJoinPool());
+        daemon.getUnits().setPhaseListener(metrics);
+        if (port>0) {
+            daemon.listen(port);
+        }
+        else {
+            daemon.serve(new BufferedReader(new InputStreamReader(System.in)),
+                    new PrintWriter(System.out));
+        }
+    }
+
+    private static void collect(File file, List<String> packageName, Module m,
+            List<PhasedUnit> units) {
+        File[] files = file.isDirectory() ?
+                file.listFiles() : new File[] { file };
+        Arrays.sort(files, new Comparator<File>() {
+            @Override public int compare(File x, File y) {
+                return x.getName().compareTo(y.getName());
+            }
+        });
+        Package p = null;
+        for (File f: files) {
+            if (f.isDirectory()) {
+                List<String> name = new ArrayList<String>(packageName);
+                name.add(f.getName());
+                collect(f, name, m, units);
+            }
+            else if ( f.getName().endsWith(".ceylon") ) {
+                if (p==null) {
+                    p = new Package();
+                    p.setName( packageName.isEmpty() ?
+                            Arrays.asList(new String[]{"test"}) : packageName );
+                    p.setModule(m);
+                    m.getPackages().add(p);
+                }
+                units.add(new PhasedUnit(f, p));
+            }
+        }
+    }
+
 }
@@ -1,8 +1,8 @@
 import com.redhat.ceylon.compiler.tree.Node;
-import com.redhat.ceylon.compiler.tree.Visitor;
+import com.redhat.ceylon.compiler.tree.Pass;
 
 
-public class PrintVisitor extends Visitor {
+public class PrintVisitor extends Pass {
     int depth=0;
 
     void print(String str) {
@@ -19,17 +19,22 @@ public class PrintVisitor extends Visitor {
     }
 
     @Override
-    public void visitAny(Node node) {
+    public boolean enterAny(Node node) {
         if (depth>0) newline();
         indent();
         print("+ ");
         print(node.getText() + 
                 " [" + node.getClass().getSimpleName() + 
-                "] (" + node.getAntlrTreeNode().getLine() + 
-                ":" + node.getAntlrTreeNode().getCharPositionInLine()  + 
+                "] (" + node.getLine() + 
+                ":" + node.getCharPositionInLine()  + 
                 ")");
         depth++;
-        super.visitAny(node);
+        return super.enterAny(node);
+    }
+    
+    @Override
+    public void exitAny(Node node) {
+        super.exitAny(node);
         depth--;
         if (depth==0) newline();
     }
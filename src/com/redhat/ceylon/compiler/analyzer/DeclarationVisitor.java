@@ -1,9 +1,19 @@
 package com.redhat.ceylon.compiler.analyzer;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import com.redhat.ceylon.compiler.model.Class;
 import com.redhat.ceylon.compiler.model.Unit;
 import com.redhat.ceylon.compiler.model.ControlBlock;
 import com.redhat.ceylon.compiler.model.Declaration;
+import com.redhat.ceylon.compiler.model.Functional;
+import com.redhat.ceylon.compiler.model.GenericType;
 import com.redhat.ceylon.compiler.model.Getter;
 import com.redhat.ceylon.compiler.model.Interface;
 import com.redhat.ceylon.compiler.model.Method;
@@ -13,38 +23,64 @@ import com.redhat.ceylon.compiler.model.Scope;
 import com.redhat.ceylon.compiler.model.SimpleValue;
 import com.redhat.ceylon.compiler.model.Structure;
 import com.redhat.ceylon.compiler.model.TypeParameter;
+import com.redhat.ceylon.compiler.model.Typed;
 import com.redhat.ceylon.compiler.tree.Node;
+import com.redhat.ceylon.compiler.tree.Pass;
 import com.redhat.ceylon.compiler.tree.Tree;
-import com.redhat.ceylon.compiler.tree.Visitor;
 
-public class DeclarationVisitor extends Visitor {
+/**
+ * Declares the model of a compilation unit. As a pass,
+ * it may be run in the same walk of the tree as other 
+ * passes which do not depend on the declarations.
+ */
+public class DeclarationVisitor extends Pass {
     
     Scope scope;
+    final List<Scope> outerScopes = new ArrayList<Scope>();
     Unit unit;
     final Package pkg;
+    final Unit previous;
+    final Map<String, Declaration> previousDeclarations = new HashMap<String, Declaration>();
     
     public DeclarationVisitor(Package p) {
+        this(p, null);
+    }
+    
+    /**
+     * Declare a compilation unit again, reusing the 
+     * model of its previous declaration, so that other
+     * units which refer to its declarations remain 
+     * valid. A declaration is reused if it has the same 
+     * kind and name, and is contained in a reused 
+     * declaration. Declarations in control blocks are
+     * never reused.
+     */
+    public DeclarationVisitor(Package p, Unit previous) {
         scope = p;
         pkg = p;
+        this.previous = previous;
     }
     
     public Unit getCompilationUnit() {
         return unit;
     }
     
-    private Scope enterScope(Scope innerScope) {
-        Scope outerScope = scope;
+    private void enterScope(Node that, Scope innerScope) {
+        that.setScope(innerScope);
+        outerScopes.add(scope);
         scope = innerScope;
-        return outerScope;
     }
 
-    private void exitScope(Scope outerScope) {
-        scope = outerScope;
+    private void exitScope() {
+        scope = outerScopes.remove(outerScopes.size()-1);
     }
 
-    private void visitDeclaration(Tree.Declaration that, Declaration model) {
-        model.setName(that.getIdentifier().getText());
+    private <D extends Declaration> D visitDeclaration(Tree.Declaration that, D model) {
+        model.setName(Util.getSymbol(that.getIdentifier(), 
+                pkg.getModule().getSymbolTable()));
+        model = reuse(model);
         visitStructure(that, model);
+        return model;
     }
 
     private void visitStructure(Node that, Structure model) {
@@ -55,96 +91,202 @@ public class DeclarationVisitor extends Visitor {
         scope.getMembers().add(model); //TODO: do we really need to include control statements here?
     }
     
-    @Override
-    public void visitAny(Node that) {
-        that.setScope(scope);
-        that.setUnit(unit);
-        super.visitAny(that);
+    @SuppressWarnings("unchecked")
+    private <D extends Declaration> D reuse(D model) {
+        String key = getKey(scope, model);
+        Declaration d = key==null ? null : previousDeclarations.remove(key);
+        if (d==null || d.getClass()!=model.getClass()) {
+            return model;
+        }
+        d.setShared(null);
+        d.getAnnotations().clear();
+        if (d instanceof Scope) {
+            ((Scope) d).getMembers().clear();
+        }
+        if (d instanceof GenericType) {
+            GenericType gt = (GenericType) d;
+            gt.setExtendedType(null);
+            gt.getSatisfiedTypes().clear();
+            gt.getCaseTypes().clear();
+            gt.getTypeParameters().clear();
+        }
+        if (d instanceof Typed) {
+            ((Typed) d).setType(null);
+        }
+        if (d instanceof Functional) {
+            ((Functional) d).parameters().clear();
+        }
+        if (d instanceof Class) {
+            ((Class) d).parameters().clear();
+        }
+        return (D) d;
+    }
+    
+    /**
+     * Remember the declarations of the previous
+     * declaration of the unit, and remove them from
+     * the package.
+     */
+    private void collectPrevious(Scope container) {
+        Set<Structure> removed = Collections.newSetFromMap(
+                new IdentityHashMap<Structure, Boolean>());
+        for (Structure s: container.getMembers()) {
+            if (s.getUnit()==previous) {
+                if (s instanceof Declaration) {
+                    Declaration d = (Declaration) s;
+                    String key = getKey(container, d);
+                    if (key!=null && !previousDeclarations.containsKey(key)) {
+                        previousDeclarations.put(key, d);
+                        if (d instanceof Scope) {
+                            collectPrevious((Scope) d);
+                        }
+                    }
+                }
+                if (container==pkg) {
+                    removed.add(s);
+                }
+            }
+        }
+        //a single pass, since the package may be large
+        if (!removed.isEmpty()) {
+            container.getMembers().removeAll(removed);
+        }
+    }
+    
+    /**
+     * A key identifying a declaration by its kind, its
+     * name, and the keys of its containers, or null for
+     * a declaration in a control block.
+     */
+    private static String getKey(Scope container, Declaration d) {
+        String prefix;
+        if (container instanceof Package) {
+            prefix = "";
+        }
+        else if (container instanceof Declaration) {
+            Declaration c = (Declaration) container;
+            prefix = getKey(c.getContainer(), c);
+            if (prefix==null) {
+                return null;
+            }
+        }
+        else {
+            return null;
+        }
+        return prefix + "/" + d.getClass().getSimpleName() + ":" + d.getName();
     }
     
     @Override
-    public void visit(Tree.CompilationUnit that) {
-        unit = new Unit();
+    public boolean enter(Tree.CompilationUnit that) {
+        if (previous==null) {
+            unit = new Unit();
+        }
+        else {
+            unit = previous;
+            unit.reset();
+            collectPrevious(pkg);
+        }
+        that.setUnit(unit);
+        that.setScope(pkg);
         that.setModelNode(unit);
         unit.setTreeNode(that);
         unit.setPackage(pkg);
-        super.visit(that);
+        return super.enter(that);
     }
     
     @Override
-    public void visit(Tree.ClassDeclaration that) {
-        Class c = new Class();
-        visitDeclaration(that, c);
-        Scope o = enterScope(c);
-        super.visit(that);
-        exitScope(o);
+    public boolean enter(Tree.ClassDeclaration that) {
+        enterScope(that, visitDeclaration(that, new Class()));
+        return super.enter(that);
     }
 
     @Override
-    public void visit(Tree.InterfaceDeclaration that) {
-        Interface i = new Interface();
-        visitDeclaration(that, i);
-        Scope o = enterScope(i);
-        super.visit(that);
-        exitScope(o);
+    public void exit(Tree.ClassDeclaration that) {
+        super.exit(that);
+        exitScope();
     }
 
     @Override
-    public void visit(Tree.TypeParameter that) {
-        TypeParameter t = new TypeParameter();
-        visitDeclaration(that, t);
-        super.visit(that);
+    public boolean enter(Tree.InterfaceDeclaration that) {
+        enterScope(that, visitDeclaration(that, new Interface()));
+        return super.enter(that);
     }
 
     @Override
-    public void visit(Tree.MethodDeclaration that) {
-        Method m = new Method();
-        visitDeclaration(that, m);
-        Scope o = enterScope(m);
-        super.visit(that);
-        exitScope(o);
+    public void exit(Tree.InterfaceDeclaration that) {
+        super.exit(that);
+        exitScope();
     }
 
     @Override
-    public void visit(Tree.AttributeDeclaration that) {
-        SimpleValue v = new SimpleValue();
-        visitDeclaration(that, v);
-        super.visit(that);
+    public boolean enter(Tree.TypeParameter that) {
+        visitDeclaration(that, new TypeParameter());
+        return super.enter(that);
     }
 
     @Override
-    public void visit(Tree.AttributeGetter that) {
-        Getter g = new Getter();
-        visitDeclaration(that, g);
-        Scope o = enterScope(g);
-        super.visit(that);
-        exitScope(o);
+    public boolean enter(Tree.MethodDeclaration that) {
+        enterScope(that, visitDeclaration(that, new Method()));
+        return super.enter(that);
+    }
+
+    @Override
+    public void exit(Tree.MethodDeclaration that) {
+        super.exit(that);
+        exitScope();
+    }
+
+    @Override
+    public boolean enter(Tree.AttributeDeclaration that) {
+        visitDeclaration(that, new SimpleValue());
+        return super.enter(that);
+    }
+
+    @Override
+    public boolean enter(Tree.AttributeGetter that) {
+        enterScope(that, visitDeclaration(that, new Getter()));
+        return super.enter(that);
+    }
+    
+    @Override
+    public void exit(Tree.AttributeGetter that) {
+        super.exit(that);
+        exitScope();
     }
     
     @Override
-    public void visit(Tree.Parameter that) {
-        Parameter p = new Parameter();
-        visitDeclaration(that, p);
-        Scope o = enterScope(p);
-        super.visit(that);
-        exitScope(o);
+    public boolean enter(Tree.Parameter that) {
+        enterScope(that, visitDeclaration(that, new Parameter()));
+        return super.enter(that);
+    }
+
+    @Override
+    public void exit(Tree.Parameter that) {
+        super.exit(that);
+        exitScope();
     }
 
     @Override
-    public void visit(Tree.ControlClause that) {
+    public boolean enter(Tree.ControlClause that) {
         ControlBlock c = new ControlBlock();
         visitStructure(that, c);
-        Scope o = enterScope(c);
-        super.visit(that);
-        exitScope(o);
+        enterScope(that, c);
+        return super.enter(that);
+    }
+    
+    @Override
+    public void exit(Tree.ControlClause that) {
+        super.exit(that);
+        exitScope();
     }
     
     @Override
-    public void visit(Tree.Variable that) {
-        super.visit(that);
+    public void exit(Tree.Variable that) {
+        super.exit(that);
         //TODO: what about callable variables?!
         SimpleValue v = new SimpleValue();
-        v.setName(that.getIdentifier().getText());
+        v.setName(Util.getSymbol(that.getIdentifier(), 
+                pkg.getModule().getSymbolTable()));
         visitStructure(that, v);
     }
 
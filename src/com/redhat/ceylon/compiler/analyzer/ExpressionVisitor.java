@@ -1,5 +1,9 @@
 package com.redhat.ceylon.compiler.analyzer;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import com.redhat.ceylon.compiler.model.Class;
 import com.redhat.ceylon.compiler.model.ClassOrInterface;
 import com.redhat.ceylon.compiler.model.GenericType;
@@ -7,116 +11,210 @@ import com.redhat.ceylon.compiler.model.Interface;
 import com.redhat.ceylon.compiler.model.Package;
 import com.redhat.ceylon.compiler.model.Scope;
 import com.redhat.ceylon.compiler.model.Type;
+import com.redhat.ceylon.compiler.model.TypeFactory;
 import com.redhat.ceylon.compiler.model.Typed;
+import com.redhat.ceylon.compiler.tree.Node;
+import com.redhat.ceylon.compiler.tree.Pass;
 import com.redhat.ceylon.compiler.tree.Tree;
 import com.redhat.ceylon.compiler.tree.Tree.Expression;
 import com.redhat.ceylon.compiler.tree.Tree.MemberOrType;
-import com.redhat.ceylon.compiler.tree.Visitor;
-
 
-public class ExpressionVisitor extends Visitor {
+/**
+ * Assigns types to the expressions of a unit. A pass
+ * rather than a Visitor, so that it is run over the
+ * tree iteratively, and deeply nested expressions
+ * cannot overflow the stack.
+ */
+public class ExpressionVisitor extends Pass {
     
     ClassOrInterface classOrInterface;
     
-    public void visit(Tree.ClassOrInterfaceDeclaration that) {
-        ClassOrInterface o = classOrInterface;
+    //the classes or interfaces enclosing the current one
+    private final List<ClassOrInterface> outerClassesOrInterfaces = 
+            new ArrayList<ClassOrInterface>();
+    
+    final SubtypeChecker subtypeChecker;
+    
+    public ExpressionVisitor() {
+        this(new SubtypeChecker());
+    }
+    
+    //the kinds of node this visitor assigns types to, 
+    //so that subtrees without expressions, for example
+    //types and parameter lists, are not walked
+    private static final long INTERESTS = 
+            Tree.ClassOrInterfaceDeclaration.KIND | 
+            Tree.MemberExpression.KIND | 
+            Tree.InvocationExpression.KIND | 
+            Tree.IndexExpression.KIND | 
+            Tree.PostfixOperatorExpression.KIND | 
+            Tree.Member.KIND | 
+            Tree.Outer.KIND | 
+            Tree.SelfExpression.KIND | 
+            Tree.Subtype.KIND | 
+            Tree.Atom.KIND;
+    
+    public ExpressionVisitor(SubtypeChecker subtypeChecker) {
+        super(INTERESTS);
+        this.subtypeChecker = subtypeChecker;
+    }
+    
+    /**
+     * Expressions refer to declarations which may come
+     * later in the unit, or from other units, and to
+     * their types.
+     */
+    @Override public boolean needsBarrier() {
+        return true;
+    }
+    
+    /**
+     * The member or type selected by a member expression
+     * is resolved against the type of its primary once
+     * the member expression is exited.
+     */
+    @Override public boolean enterAny(Node that) {
+        return !Util.isSelectedMember(that);
+    }
+    
+    @Override public boolean enter(Tree.ClassOrInterfaceDeclaration that) {
+        outerClassesOrInterfaces.add(classOrInterface);
         classOrInterface = (ClassOrInterface) that.getModelNode();
-        super.visit(that);
-        classOrInterface = o;
+        return super.enter(that);
+    }
+    
+    @Override public void exit(Tree.ClassOrInterfaceDeclaration that) {
+        super.exit(that);
+        classOrInterface = outerClassesOrInterfaces.remove(
+                outerClassesOrInterfaces.size()-1);
     }
     
     //Primaries:
     
-    @Override public void visit(Tree.MemberExpression that) {
-        that.getPrimary().visit(this);
-        GenericType gt = that.getPrimary().getTypeModel().getGenericType();
+    @Override public void exit(Tree.MemberExpression that) {
+        super.exit(that);
+        Type pt = getType(that.getPrimary());
+        GenericType gt = pt==null ? null : pt.getGenericType();
         if (gt instanceof Scope) {
             MemberOrType mt = that.getMemberOrType();
             if (mt instanceof Tree.Member) {
                 Typed member = Util.getDeclaration((Scope) gt, (Tree.Member) mt);
-                that.setTypeModel(member.getType());
-                //TODO: handle type arguments by substitution
-                mt.setModelNode(member);
+                if (member==null) {
+                    that.setTypeModel( Util.getErrorType() );
+                }
+                else {
+                    that.setTypeModel(member.getType());
+                    //TODO: handle type arguments by substitution
+                    mt.setModelNode(member);
+                }
             }
             else if (mt instanceof Tree.Type) {
                 GenericType member = Util.getDeclaration((Scope) gt, (Tree.Type) mt);
-                Type t = new Type();
-                t.setGenericType(member);
-                t.setTreeNode(that);
+                Type t = TypeFactory.getType(member);
                 //TODO: handle type arguments by substitution
                 that.setTypeModel(t);
                 mt.setModelNode(member);
             }
             else if (mt instanceof Tree.Outer) {
-                if (!(gt instanceof ClassOrInterface)) {
-                    throw new RuntimeException("Can't use outer on a type parameter");
+                if (gt instanceof ClassOrInterface) {
+                    that.setTypeModel( getOuterType(mt, (ClassOrInterface) gt) );
+                }
+                else {
+                    mt.addError("Can't use outer on a type parameter");
+                    that.setTypeModel( Util.getErrorType() );
                 }
-                Type t = getOuterType((ClassOrInterface) gt);
-                that.setTypeModel(t);
             }
             else {
                 //TODO: handle type parameters by looking at
                 //      their upper bound constraints 
                 //TODO: handle x.outer
-                throw new RuntimeException("Not yet supported");
+                mt.addError("Not yet supported");
+                that.setTypeModel( Util.getErrorType() );
             }
         }
+        else {
+            //there are no members to look up, since the
+            //type of the primary is an error type, or a
+            //type parameter, or is not yet determined
+            that.setTypeModel( Util.getErrorType() );
+        }
     }
     
-    @Override public void visit(Tree.Annotation that) {
+    @Override public boolean enter(Tree.Annotation that) {
         //TODO: ignore annotations for now
+        return false;
     }
     
-    @Override public void visit(Tree.InvocationExpression that) {
-        super.visit(that);
-        that.setTypeModel( that.getPrimary().getTypeModel() ); //TODO: this is hackish
+    @Override public void exit(Tree.InvocationExpression that) {
+        super.exit(that);
+        that.setTypeModel( getType(that.getPrimary()) ); //TODO: this is hackish
         //TODO: validate argument types are assignable to parameter types
+        //      using subtypeChecker.isSubtype()
     }
     
-    @Override public void visit(Tree.IndexExpression that) {
-        super.visit(that);
+    @Override public void exit(Tree.IndexExpression that) {
+        super.exit(that);
         //TODO!
     }
     
-    @Override public void visit(Tree.PostfixOperatorExpression that) {
-        super.visit(that);
-        that.setTypeModel( that.getPrimary().getTypeModel() );
+    @Override public void exit(Tree.PostfixOperatorExpression that) {
+        super.exit(that);
+        that.setTypeModel( getType(that.getPrimary()) );
     }
         
     //Atoms:
     
-    @Override public void visit(Tree.Member that) {
+    @Override public boolean enter(Tree.Member that) {
+        if (Util.isSelectedMember(that)) {
+            return false;
+        }
         //TODO: this does not correctly handle methods
         //      and classes which are not subsequently 
         //      invoked (should return the callable type)
-        that.setTypeModel( Util.getDeclaration(that).getType() );
+        Typed member = Util.getDeclaration(that);
+        that.setTypeModel( member==null ? 
+                Util.getErrorType() : member.getType() );
+        return false;
     }
     
-    @Override public void visit(Tree.Type that) {
+    @Override public boolean enter(Tree.Type that) {
         //TODO: this does not correctly handle methods
         //      and classes which are not subsequently 
         //      invoked (should return the callable type)
         //that.setType( (Type) that.getModelNode() );
+        return false;
     }
     
-    @Override public void visit(Tree.Expression that) {
+    @Override public void exit(Tree.Expression that) {
         //i.e. this is a parenthesized expression
-        super.visit(that);
-        that.setTypeModel( that.getTerm().getTypeModel() );
+        super.exit(that);
+        that.setTypeModel( getType(that.getTerm()) );
+    }
+    
+    /**
+     * The type of a child node, or the error type if
+     * the child is missing from the tree because of a
+     * parse error, which was already reported.
+     */
+    private static Type getType(Node child) {
+        return child==null ? Util.getErrorType() : child.getTypeModel();
     }
     
-    @Override public void visit(Tree.Outer that) {
-        Type t = getOuterType( that.getScope() );
+    @Override public boolean enter(Tree.Outer that) {
+        if (Util.isSelectedMember(that)) {
+            return false;
+        }
+        Type t = getOuterType( that, that.getScope() );
         that.setTypeModel(t);
+        return false;
     }
 
-    private Type getOuterType(Scope scope) {
+    private Type getOuterType(Node that, Scope scope) {
         Boolean foundInner = false;
         while (!(scope instanceof Package)) {
             if (scope instanceof ClassOrInterface) {
                 if (foundInner) {
-                    Type t = new Type();
-                    t.setGenericType((ClassOrInterface) scope);
+                    Type t = TypeFactory.getType((ClassOrInterface) scope);
                     //TODO: type arguments
                     return t;
                 }
@@ -126,94 +224,108 @@ public class ExpressionVisitor extends Visitor {
             }
             scope = scope.getContainer();
         }
-        throw new RuntimeException("Can't use outer outside of nested class or interface");
+        that.addError("Can't use outer outside of nested class or interface");
+        return Util.getErrorType();
     }
     
-    @Override public void visit(Tree.Super that) {
+    @Override public boolean enter(Tree.Super that) {
         if (classOrInterface==null) {
-            throw new RuntimeException("Can't use super outside a class");
+            that.addError("Can't use super outside a class");
+            that.setTypeModel( Util.getErrorType() );
         }
-        if (!(classOrInterface instanceof Class)) {
-            throw new RuntimeException("Can't use super inside an interface");
+        else if (!(classOrInterface instanceof Class)) {
+            that.addError("Can't use super inside an interface");
+            that.setTypeModel( Util.getErrorType() );
         }
-        Type t = classOrInterface.getExtendedType();
-        //TODO: type arguments
-        that.setTypeModel(t);
+        else {
+            Type t = classOrInterface.getExtendedType();
+            //TODO: type arguments
+            that.setTypeModel(t);
+        }
+        return false;
     }
     
-    @Override public void visit(Tree.This that) {
+    @Override public boolean enter(Tree.This that) {
         if (classOrInterface==null) {
-            throw new RuntimeException("Can't use this outside a class or interface");
+            that.addError("Can't use this outside a class or interface");
+            that.setTypeModel( Util.getErrorType() );
         }
-        Type t = new Type();
-        t.setGenericType(classOrInterface);
-        //TODO: type arguments
-        that.setTypeModel(t);
+        else {
+            Type t = TypeFactory.getType(classOrInterface);
+            //TODO: type arguments
+            that.setTypeModel(t);
+        }
+        return false;
     }
     
-    @Override public void visit(Tree.Subtype that) {
+    @Override public boolean enter(Tree.Subtype that) {
+        if (Util.isSelectedMember(that)) {
+            return false;
+        }
         //TODO!
-        throw new RuntimeException();
+        that.addError("Not yet supported");
+        that.setTypeModel( Util.getErrorType() );
+        return false;
     }
     
-    @Override public void visit(Tree.StringTemplate that) {
-        super.visit(that);
+    @Override public void exit(Tree.StringTemplate that) {
+        super.exit(that);
         //TODO: validate that the subexpression types are Formattable
-        Type t = new Type();
-        t.setGenericType( (Class) Util.getImportedDeclaration(that.getUnit(), 
-                "ceylon.language.String") );
+        Type t = TypeFactory.getType( (Class) Util.getLanguageDeclaration(that.getUnit(), 
+                "String") );
         that.setTypeModel(t);
     }
     
-    @Override public void visit(Tree.SequenceEnumeration that) {
-        super.visit(that);
-        Type et = null; 
+    @Override public void exit(Tree.SequenceEnumeration that) {
+        super.exit(that);
+        List<Type> types = new ArrayList<Type>();
         for (Expression e: that.getExpressionList().getExpressions()) {
-            if (et==null) {
-                et = e.getTypeModel();
-            }
-            //TODO: determine the common supertype of all of them
+            types.add(e.getTypeModel());
+        }
+        Type et = subtypeChecker.getCommonSupertype(types);
+        if (et==null && !types.isEmpty()) {
+            //TODO: the common supertype may be a union type
+            et = types.get(0);
         }
-        Type t = new Type();
-        t.setGenericType( (Interface) Util.getImportedDeclaration(that.getUnit(), 
-                "ceylon.language.Sequence") );
-        t.getTypeArguments().add(et);
+        Type t = TypeFactory.getType( (Interface) Util.getLanguageDeclaration(that.getUnit(), 
+                "Sequence"), Collections.singletonList(et), 
+                that.getUnit().getPackage().getModule() );
         that.setTypeModel(t);
     }
     
-    @Override public void visit(Tree.StringLiteral that) {
-        Type t = new Type();
-        t.setGenericType( (Class) Util.getImportedDeclaration(that.getUnit(), 
-                "ceylon.language.String") );
+    @Override public boolean enter(Tree.StringLiteral that) {
+        Type t = TypeFactory.getType( (Class) Util.getLanguageDeclaration(that.getUnit(), 
+                "String") );
         that.setTypeModel(t);
+        return false;
     }
     
-    @Override public void visit(Tree.NaturalLiteral that) {
-        Type t = new Type();
-        t.setGenericType( (Class) Util.getImportedDeclaration(that.getUnit(), 
-                "ceylon.language.Natural") );
+    @Override public boolean enter(Tree.NaturalLiteral that) {
+        Type t = TypeFactory.getType( (Class) Util.getLanguageDeclaration(that.getUnit(), 
+                "Natural") );
         that.setTypeModel(t);
+        return false;
     }
     
-    @Override public void visit(Tree.FloatLiteral that) {
-        Type t = new Type();
-        t.setGenericType( (Class) Util.getImportedDeclaration(that.getUnit(), 
-                "ceylon.language.Float") );
+    @Override public boolean enter(Tree.FloatLiteral that) {
+        Type t = TypeFactory.getType( (Class) Util.getLanguageDeclaration(that.getUnit(), 
+                "Float") );
         that.setTypeModel(t);
+        return false;
     }
     
-    @Override public void visit(Tree.CharLiteral that) {
-        Type t = new Type();
-        t.setGenericType( (Class) Util.getImportedDeclaration(that.getUnit(), 
-                "ceylon.language.Character") );
+    @Override public boolean enter(Tree.CharLiteral that) {
+        Type t = TypeFactory.getType( (Class) Util.getLanguageDeclaration(that.getUnit(), 
+                "Character") );
         that.setTypeModel(t);
+        return false;
     }
     
-    @Override public void visit(Tree.QuotedLiteral that) {
-        Type t = new Type();
-        t.setGenericType( (Class) Util.getImportedDeclaration(that.getUnit(), 
-                "ceylon.language.Quoted") );
+    @Override public boolean enter(Tree.QuotedLiteral that) {
+        Type t = TypeFactory.getType( (Class) Util.getLanguageDeclaration(that.getUnit(), 
+                "Quoted") );
         that.setTypeModel(t);
+        return false;
     }
     
 }
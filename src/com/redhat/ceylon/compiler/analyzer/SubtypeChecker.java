@@ -0,0 +1,216 @@
+package com.redhat.ceylon.compiler.analyzer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.redhat.ceylon.compiler.model.GenericType;
+import com.redhat.ceylon.compiler.model.Type;
+
+/**
+ * Decides the subtype relation between produced types
+ * by walking the extended and satisfied types of their
+ * declarations, and remembers the answer for each pair
+ * of types. Since produced types are canonical, pairs
+ * are compared by identity.
+ *
+ * The results are only valid as long as the supertypes
+ * of the declarations do not change, so a checker
+ * should not outlive the declaration phase of the units
+ * it is used for. This class is thread safe.
+ */
+public class SubtypeChecker {
+
+    private final ConcurrentMap<TypePair, Boolean> results =
+            new ConcurrentHashMap<TypePair, Boolean>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Is the first type a subtype of the second type?
+     * A type is a subtype of itself. A type which could
+     * not be determined, that is, the error type, or any
+     * other type with no generic type, or null, is not a
+     * subtype or supertype of anything, not even itself.
+     */
+    public boolean isSubtype(Type type, Type supertype) {
+        if (isUndetermined(type) || isUndetermined(supertype)) {
+            return false;
+        }
+        if (type==supertype) {
+            return true;
+        }
+        TypePair key = new TypePair(type, supertype);
+        Boolean result = results.get(key);
+        if (result!=null) {
+            hits.incrementAndGet();
+            return result;
+        }
+        misses.incrementAndGet();
+        boolean subtype = isSubtype(type, supertype, new HashSet<GenericType>());
+        results.putIfAbsent(key, subtype);
+        return subtype;
+    }
+
+    private boolean isSubtype(Type type, Type supertype, Set<GenericType> visited) {
+        if (type==supertype) {
+            return true;
+        }
+        Boolean result = results.get(new TypePair(type, supertype));
+        if (result!=null) {
+            return result;
+        }
+        GenericType gt = type.getGenericType();
+        if (gt==null || !visited.add(gt)) {
+            return false;
+        }
+        //TODO: handle type arguments by substitution
+        //      and take variance into account
+        for (Type st: getSupertypes(gt)) {
+            if (!isUndetermined(st) && isSubtype(st, supertype, visited)) {
+                //a positive answer does not depend upon
+                //which declarations were already visited
+                results.putIfAbsent(new TypePair(type, supertype), true);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isUndetermined(Type type) {
+        return type==null || type.getGenericType()==null;
+    }
+
+    /**
+     * The most specific of the given types and their
+     * supertypes that all the types are subtypes of,
+     * or null if there is no such type, or if one of
+     * the types could not be determined. Every common
+     * supertype is collected, and any which is a
+     * supertype of another is dropped. If several
+     * unrelated types remain, the one nearest to the
+     * first type in its supertypes is returned.
+     */
+    public Type getCommonSupertype(List<Type> types) {
+        if (types.isEmpty()) {
+            return null;
+        }
+        for (Type t: types) {
+            if (isUndetermined(t)) {
+                return null;
+            }
+        }
+        //every common supertype is a supertype of the
+        //first type, so visit those, nearest first
+        List<Type> supertypes = new ArrayList<Type>();
+        supertypes.add(types.get(0));
+        Set<GenericType> visited = new HashSet<GenericType>();
+        List<Type> common = new ArrayList<Type>();
+        for (int i=0; i<supertypes.size(); i++) {
+            Type supertype = supertypes.get(i);
+            if (!common.contains(supertype) && isSupertypeOfAll(supertype, types)) {
+                common.add(supertype);
+            }
+            GenericType gt = supertype.getGenericType();
+            if (visited.add(gt)) {
+                for (Type st: getSupertypes(gt)) {
+                    if (!isUndetermined(st)) {
+                        supertypes.add(st);
+                    }
+                }
+            }
+        }
+        for (Type candidate: common) {
+            if (!isSupertypeOfAnother(candidate, common)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    //is the candidate a proper supertype of one of the
+    //other types, which is then more specific than it?
+    private boolean isSupertypeOfAnother(Type candidate, List<Type> types) {
+        for (Type t: types) {
+            if (t!=candidate && isSubtype(t, candidate) && 
+                    !isSubtype(candidate, t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isSupertypeOfAll(Type supertype, List<Type> types) {
+        for (Type t: types) {
+            if (!isSubtype(t, supertype)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Type> getSupertypes(GenericType gt) {
+        List<Type> supertypes = new ArrayList<Type>();
+        supertypes.add(gt.getExtendedType());
+        supertypes.addAll(gt.getSatisfiedTypes());
+        return supertypes;
+    }
+
+    /**
+     * The number of calls to isSubtype() answered from
+     * the remembered results.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * The number of calls to isSubtype() which had to
+     * walk the supertypes.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void clear() {
+        results.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "SubtypeChecker[" + results.size() + " results, " +
+                hits + " hits, " + misses + " misses]";
+    }
+
+    private static final class TypePair {
+
+        private final Type type;
+        private final Type supertype;
+
+        TypePair(Type type, Type supertype) {
+            this.type = type;
+            this.supertype = supertype;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31*System.identityHashCode(type) +
+                    System.identityHashCode(supertype);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TypePair)) {
+                return false;
+            }
+            TypePair that = (TypePair) obj;
+            return that.type==type && that.supertype==supertype;
+        }
+
+    }
+
+}
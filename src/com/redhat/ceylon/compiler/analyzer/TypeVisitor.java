@@ -1,86 +1,157 @@
 package com.redhat.ceylon.compiler.analyzer;
 
+import java.util.ArrayList;
 import java.util.List;
 
+import com.redhat.ceylon.compiler.model.GenericType;
 import com.redhat.ceylon.compiler.model.Import;
-import com.redhat.ceylon.compiler.model.Module;
 import com.redhat.ceylon.compiler.model.Package;
+import com.redhat.ceylon.compiler.model.PackageIndex;
+import com.redhat.ceylon.compiler.model.SymbolTable;
 import com.redhat.ceylon.compiler.model.Type;
+import com.redhat.ceylon.compiler.model.TypeFactory;
 import com.redhat.ceylon.compiler.model.Typed;
 import com.redhat.ceylon.compiler.model.Unit;
 import com.redhat.ceylon.compiler.tree.Node;
+import com.redhat.ceylon.compiler.tree.Pass;
 import com.redhat.ceylon.compiler.tree.Tree;
 import com.redhat.ceylon.compiler.tree.Tree.Alias;
 import com.redhat.ceylon.compiler.tree.Tree.Identifier;
 import com.redhat.ceylon.compiler.tree.Tree.TypeOrSubtype;
-import com.redhat.ceylon.compiler.tree.Visitor;
 import com.redhat.ceylon.compiler.util.PrintUtil;
 
-public class TypeVisitor extends Visitor {
+/**
+ * Resolves the types of the declarations of a unit, and
+ * the imports of the unit. A pass rather than a Visitor,
+ * so that it is run over the tree iteratively, and
+ * deeply nested expressions cannot overflow the stack.
+ */
+public class TypeVisitor extends Pass {
     
     Unit unit;
     
-    Type outerType;
+    List<Type> typeArguments;
+    
+    //for each type being resolved, innermost last, its
+    //generic type, and the type arguments of the type
+    //enclosing it
+    private final List<GenericType> genericTypes = new ArrayList<GenericType>();
+    private final List<List<Type>> outerTypeArguments = new ArrayList<List<Type>>();
     
     Package importPackage;
     
+    //the kinds of node this visitor resolves types at,
+    //so that bodies without local declarations are not
+    //walked
+    private static final long INTERESTS = 
+            Tree.ImportPath.KIND | 
+            Tree.ImportMemberOrType.KIND | 
+            Tree.ClassOrInterfaceDeclaration.KIND | 
+            Tree.AnyAttributeDeclaration.KIND | 
+            Tree.MethodDeclaration.KIND | 
+            Tree.Variable.KIND | 
+            Tree.Type.KIND;
+    
     public TypeVisitor(Unit cu) {
+        super(INTERESTS);
         unit = cu;
     }
     
+    /**
+     * Types refer to declarations which may come later in
+     * the unit, or from other units.
+     */
     @Override
-    public void visit(Tree.ImportPath that) {
-        importPackage = getPackage(that.getIdentifiers());
+    public boolean needsBarrier() {
+        return true;
     }
     
-    Package getPackage(List<Identifier> importPath) {
-        Module m = unit.getPackage().getModule();
-        for (Package mp: m.getAllPackages()) {
-            if ( hasName(importPath, mp) ) {
-                return mp;
-            }
+    /**
+     * Suppress resolution of types that appear after the
+     * member selection operator "."
+     */
+    @Override
+    public boolean enterAny(Node that) {
+        return !Util.isSelectedMember(that);
+    }
+    
+    @Override
+    public boolean enter(Tree.ImportPath that) {
+        importPackage = getPackage(that.getIdentifiers());
+        if (importPackage==null) {
+            that.addError("Package not found: " + 
+                    PrintUtil.importNodeToString(that.getIdentifiers()));
         }
-        throw new RuntimeException( "Package not found: " + PrintUtil.importNodeToString(importPath) );
+        return false;
     }
-
-    private boolean hasName(List<Identifier> importPath, Package mp) {
-        if (mp.getName().size()==importPath.size()) {
-            for (int i=0; i<mp.getName().size(); i++) {
-                if (!mp.getName().get(i).equals(importPath.get(i).getText())) {
-                    return false;
-                }
-            }
-            return true;
+    
+    Package getPackage(List<Identifier> importPath) {
+        PackageIndex index = unit.getPackage().getModule().getPackageIndex();
+        for (int i=0; i<importPath.size() && index!=null; i++) {
+            index = index.getChild(Util.getSymbol(importPath.get(i), 
+                    getSymbolTable()));
         }
-        else {
-            return false;
+        if (index!=null && index.getPackage()!=null) {
+            return index.getPackage();
         }
+        return null;
+    }
+    
+    private SymbolTable getSymbolTable() {
+        return unit.getPackage().getModule().getSymbolTable();
     }
     
     @Override
-    public void visit(Tree.ImportMemberOrType that) {
+    public boolean enter(Tree.ImportMemberOrType that) {
+        if (importPackage==null) {
+            //the missing package was already reported
+            return false;
+        }
         Import i = new Import();
         Alias alias = that.getAlias();
         if (alias==null) {
-            i.setAlias(that.getIdentifier().getText());
+            i.setAlias(Util.getSymbol(that.getIdentifier(), getSymbolTable()));
         }
         else {
-            i.setAlias(alias.getIdentifier().getText());
+            i.setAlias(Util.getSymbol(alias.getIdentifier(), getSymbolTable()));
         }
         i.setDeclaration( Util.getDeclaration(importPackage, 
                     that.getIdentifier()) );
-        unit.getImports().add(i);
+        unit.addImport(i);
+        return false;
     }
         
     @Override
-    public void visit(Tree.AnyAttributeDeclaration that) {
-        super.visit(that);
+    public void exit(Tree.ClassOrInterfaceDeclaration that) {
+        super.exit(that);
+        GenericType gt = (GenericType) that.getModelNode();
+        if (that.getSatisfiedTypes()!=null) {
+            for (Tree.Type t: that.getSatisfiedTypes().getTypes()) {
+                gt.getSatisfiedTypes().add( (Type) t.getModelNode() );
+            }
+        }
+    }
+    
+    @Override
+    public void exit(Tree.ClassDeclaration that) {
+        super.exit(that);
+        //the type is missing after a parse error
+        if (that.getExtendedType()!=null && 
+                that.getExtendedType().getType()!=null) {
+            GenericType gt = (GenericType) that.getModelNode();
+            gt.setExtendedType( (Type) that.getExtendedType().getType().getModelNode() );
+        }
+    }
+    
+    @Override
+    public void exit(Tree.AnyAttributeDeclaration that) {
+        super.exit(that);
         setType(that, that.getTypeOrSubtype());
     }
 
     @Override
-    public void visit(Tree.MethodDeclaration that) {
-        super.visit(that);
+    public void exit(Tree.MethodDeclaration that) {
+        super.exit(that);
         if (that.getVoidModifier()!=null) {
             //TODO: set the type to Void
         }
@@ -90,14 +161,15 @@ public class TypeVisitor extends Visitor {
     }
     
     @Override
-    public void visit(Tree.Variable that) {
-        super.visit(that);
+    public void exit(Tree.Variable that) {
+        super.exit(that);
         setType(that, that.getType());
     }
     
     private void setType(Node that, TypeOrSubtype type) {
         if (type==null) {
-            throw new RuntimeException("type inference not yet supported");
+            that.addError("type inference not yet supported");
+            ( (Typed) that.getModelNode() ).setType( Util.getErrorType() );
         }
         else {
             Type t = (Type) type.getModelNode();
@@ -106,30 +178,40 @@ public class TypeVisitor extends Visitor {
     }
     
     @Override 
-    public void visit(Tree.Type that) {
-        Type type = new Type();
-        that.setModelNode(type);
-        type.setTreeNode(that);
-        type.setGenericType( Util.getDeclaration(that) );
+    public boolean enter(Tree.Type that) {
+        if (Util.isSelectedMember(that)) {
+            return false;
+        }
+        GenericType gt;
+        if (that.getIdentifier()==null) {
+            //TODO: the type is "subtype"
+            that.addError("Not yet supported");
+            gt = null;
+        }
+        else {
+            gt = Util.getDeclaration(that);
+        }
+        genericTypes.add(gt);
+        outerTypeArguments.add(typeArguments);
+        typeArguments = new ArrayList<Type>();
+        return true;
+    }
+    
+    @Override 
+    public void exit(Tree.Type that) {
+        if (Util.isSelectedMember(that)) {
+            return;
+        }
+        GenericType gt = genericTypes.remove(genericTypes.size()-1);
         //TODO: handle type arguments by substitution
+        Type type = TypeFactory.getType(gt, typeArguments, 
+                unit.getPackage().getModule());
+        typeArguments = outerTypeArguments.remove(outerTypeArguments.size()-1);
+        that.setModelNode(type);
         that.setTypeModel(type);
-        if (outerType!=null) {
-            outerType.getTypeArguments().add(type);
+        if (typeArguments!=null) {
+            typeArguments.add(type);
         }
-        Type o = outerType;
-        outerType = type;
-        super.visit(that);
-        outerType = o;
         //System.out.println(t);
     }
-
-    /**
-     * Suppress resolution of types that appear after the
-     * member selection operator "."
-     */
-    @Override
-    public void visit(Tree.MemberExpression that) {
-        that.getPrimary().visit(this);            
-    }
-    
 }
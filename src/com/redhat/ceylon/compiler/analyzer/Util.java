@@ -1,16 +1,31 @@
 package com.redhat.ceylon.compiler.analyzer;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.runtime.Token;
+
 import com.redhat.ceylon.compiler.model.Declaration;
 import com.redhat.ceylon.compiler.model.GenericType;
 import com.redhat.ceylon.compiler.model.Import;
+import com.redhat.ceylon.compiler.model.Module;
 import com.redhat.ceylon.compiler.model.Package;
 import com.redhat.ceylon.compiler.model.Scope;
-import com.redhat.ceylon.compiler.model.Structure;
+import com.redhat.ceylon.compiler.model.Symbol;
+import com.redhat.ceylon.compiler.model.SymbolTable;
+import com.redhat.ceylon.compiler.model.Type;
+import com.redhat.ceylon.compiler.model.TypeFactory;
 import com.redhat.ceylon.compiler.model.Typed;
 import com.redhat.ceylon.compiler.model.Unit;
+import com.redhat.ceylon.compiler.parser.SymbolToken;
+import com.redhat.ceylon.compiler.tree.Node;
 import com.redhat.ceylon.compiler.tree.Tree;
 
 class Util {
+    
+    private static final List<String> LANGUAGE_PACKAGE = 
+            Arrays.asList(new String[] { "ceylon", "language" });
 
     /**
      * Resolve the type against the scope in which it
@@ -55,11 +70,34 @@ class Util {
         return getDeclaration(pkg, null, id);
     }
 
+    /**
+     * Resolve the name of the identifier, recording an
+     * error at the identifier if there is no such 
+     * declaration, and returning null, or otherwise
+     * recording the identifier as a reference to the
+     * declaration.
+     */
     private static Declaration getDeclaration(Scope scope, Unit unit, Tree.Identifier id) {
-        return getDeclaration(scope, unit, id.getText());
+        Symbol name = getSymbol(id, getSymbolTable(scope));
+        Declaration d = getDeclaration(scope, unit, name);
+        if (d==null) {
+            id.addError("Member not found: " + id.getText());
+        }
+        else if (id.getUnit()!=null) {
+            id.getUnit().addReference(d, id);
+        }
+        //a name which did not resolve, or resolved to a
+        //toplevel declaration, may resolve differently
+        //once a package gains or loses a declaration
+        if (id.getUnit()!=null && 
+                (d==null || d.getContainer() instanceof Package)) {
+            id.getUnit().addNameDependency(name);
+        }
+        addDependency(id.getUnit(), d);
+        return d;
     }
 
-    private static Declaration getDeclaration(Scope scope, Unit unit, String name) {
+    private static Declaration getDeclaration(Scope scope, Unit unit, Symbol name) {
         while (scope!=null) {
             //imports hide declarations in same package
             //but not declarations in local scopes
@@ -75,7 +113,7 @@ class Util {
             }
             scope = scope.getContainer();
         }
-        throw new RuntimeException("Member not found: " + name);
+        return null;
     }
     
     /**
@@ -83,30 +121,122 @@ class Util {
      * without considering containing scopes or 
      * imports. 
      */
-    private static Declaration getLocalDeclaration(Scope scope, String name) {
-        for ( Structure s: scope.getMembers() ) {
-            if (s instanceof Declaration) {
-                Declaration d = (Declaration) s;
-                if (d.getName().equals(name)) {
-                    return d;
-                }
-            }
-        }
-        return null;
+    private static Declaration getLocalDeclaration(Scope scope, Symbol name) {
+        return scope.getDirectMember(name);
     }
     
     /**
      * Search the imports of a compilation unit 
      * for the declaration. 
      */
-    static Declaration getImportedDeclaration(Unit u, String name) {
-        for (Import i: u.getImports()) {
-            Declaration d = i.getDeclaration();
-            if (d.getName().equals(name)) {
-                return d;
+    static Declaration getImportedDeclaration(Unit u, Symbol name) {
+        Import i = u.getImport(name);
+        return i==null ? null : i.getDeclaration();
+    }
+    
+    /**
+     * Resolve a toplevel declaration of the package
+     * ceylon.language, for example the type of a
+     * literal. The result is cached by the unit, so
+     * the package is searched at most once per name.
+     */
+    static Declaration getLanguageDeclaration(Unit u, String name) {
+        Map<String, Declaration> cache = u.getLanguageDeclarations();
+        Declaration d = null;
+        synchronized (cache) {
+            if (cache.containsKey(name)) {
+                return cache.get(name);
+            }
+            Module module = u.getPackage().getModule();
+            Package lang = module.getPackage(LANGUAGE_PACKAGE);
+            //if the name was never interned, nothing
+            //is declared with it
+            Symbol symbol = module.getSymbolTable().get(name);
+            if (lang!=null && symbol!=null) {
+                d = lang.getDirectMember(symbol);
+            }
+            cache.put(name, d);
+        }
+        addDependency(u, d);
+        return d;
+    }
+    
+    /**
+     * The symbol of the name of the identifier, which
+     * was interned as the tree was built, or, if the
+     * tree was built without a symbol table, is 
+     * interned now in the given table, the table of
+     * the module.
+     */
+    static Symbol getSymbol(Tree.Identifier id, SymbolTable table) {
+        Token token = id.getToken();
+        if (token instanceof SymbolToken) {
+            return ((SymbolToken) token).getSymbol();
+        }
+        else {
+            return table.intern(id.getText());
+        }
+    }
+    
+    /**
+     * The symbol table of the module of the package
+     * containing the scope.
+     */
+    private static SymbolTable getSymbolTable(Scope scope) {
+        Scope s = scope;
+        while (s!=null && !(s instanceof Package)) {
+            s = s.getContainer();
+        }
+        if (s==null) {
+            throw new RuntimeException("scope is not in a package: " + scope);
+        }
+        return ((Package) s).getModule().getSymbolTable();
+    }
+    
+    /**
+     * Whether the node is the member or type selected by
+     * a member expression, after the member selection
+     * operator ".", which is not resolved against the
+     * scope in which it occurs.
+     */
+    static boolean isSelectedMember(Node that) {
+        return that.getParent() instanceof Tree.MemberExpression && 
+                ((Tree.MemberExpression) that.getParent()).getMemberOrType()==that;
+    }
+    
+    /**
+     * The type of a node whose type could not be
+     * determined because of an error. It has no generic
+     * type, and so no members and no supertypes.
+     */
+    static Type getErrorType() {
+        return TypeFactory.getType(null);
+    }
+    
+    /**
+     * Record that the given unit depends upon the unit
+     * containing the declaration, and, if it is typed,
+     * upon the units containing its type, since the 
+     * type will flow into the expressions of the unit.
+     */
+    private static void addDependency(Unit u, Declaration d) {
+        if (u!=null && d!=null) {
+            u.addDependency(d.getUnit());
+            if (d instanceof Typed) {
+                addDependency(u, ((Typed) d).getType());
+            }
+        }
+    }
+    
+    private static void addDependency(Unit u, Type t) {
+        if (t!=null) {
+            if (t.getGenericType()!=null) {
+                u.addDependency(t.getGenericType().getUnit());
+            }
+            for (Type ta: t.getTypeArguments()) {
+                addDependency(u, ta);
             }
         }
-        return null;
     }
     
 }
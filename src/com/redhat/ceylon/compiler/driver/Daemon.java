@@ -0,0 +1,328 @@
+package com.redhat.ceylon.compiler.driver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import com.redhat.ceylon.compiler.model.Declaration;
+import com.redhat.ceylon.compiler.model.Module;
+import com.redhat.ceylon.compiler.model.Package;
+import com.redhat.ceylon.compiler.model.Unit;
+import com.redhat.ceylon.compiler.tree.AnalysisError;
+import com.redhat.ceylon.compiler.tree.Node;
+import com.redhat.ceylon.compiler.tree.PositionIndex;
+import com.redhat.ceylon.compiler.tree.Tree;
+
+/**
+ * A long-lived checker for the files under a root
+ * directory, with one package per directory, which
+ * keeps their model resident between requests, so
+ * that a request only analyses the files which were
+ * edited, added or removed since the last one, and
+ * the files which depend upon them. The declarations
+ * of stable dependencies, for example the language
+ * module, are parsed and declared once, by the first
+ * request, and the JIT stays warm.
+ *
+ * Requests are lines of text, read from a reader or
+ * from connections to a local port, and are served
+ * one at a time:
+ *
+ *   check [file...]   bring the model up to date with
+ *                     the files under the root, and
+ *                     report the errors in the given
+ *                     files, or in all files
+ *   at file line col  report the innermost node and
+ *                     declaration at the given line
+ *                     and position in the line of a
+ *                     file, as of the last check
+ *   usages file line col
+ *                     report the references to the
+ *                     innermost declaration at the
+ *                     given position, as of the last
+ *                     check
+ *   quit              stop serving
+ *
+ * The response to a check is one line per error, in
+ * the format used by Main, then a summary line, then
+ * a line containing only a period. Every response
+ * ends with a line containing only a period.
+ */
+public class Daemon {
+
+    private final File root;
+    private final Module module = new Module();
+    private final Map<List<String>, Package> packages = new HashMap<List<String>, Package>();
+    private final IncrementalUnits units;
+
+    public Daemon(File root, ForkJoinPool pool) {
+        this.root = root;
+        module.setName(Arrays.asList(new String[]{"test"}));
+        units = new IncrementalUnits(pool);
+    }
+
+    public IncrementalUnits getUnits() {
+        return units;
+    }
+
+    /**
+     * Serve the requests read from the reader, until it
+     * is exhausted or a quit request is read, writing
+     * the responses to the writer. Returns false if a
+     * quit request was read.
+     */
+    public boolean serve(BufferedReader in, PrintWriter out) throws IOException {
+        String line;
+        while ( (line = in.readLine())!=null ) {
+            List<String> words = new ArrayList<String>();
+            for (String word: line.trim().split("\\s+")) {
+                if (!word.isEmpty()) {
+                    words.add(word);
+                }
+            }
+            if (words.isEmpty()) {
+                continue;
+            }
+            String command = words.remove(0);
+            if (command.equals("quit")) {
+                return false;
+            }
+            else if (command.equals("check")) {
+                check(words, out);
+            }
+            else if (command.equals("at")) {
+                at(words, out);
+            }
+            else if (command.equals("usages")) {
+                usages(words, out);
+            }
+            else {
+                out.println("Unknown request: " + command);
+            }
+            out.println(".");
+            out.flush();
+        }
+        return true;
+    }
+
+    /**
+     * Serve the connections to the given port of the
+     * loopback interface, one at a time, until a quit
+     * request is read.
+     */
+    public void listen(int port) throws IOException {
+        ServerSocket server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        try {
+            boolean serving = true;
+            while (serving) {
+                Socket socket = server.accept();
+                try {
+                    serving = serve(new BufferedReader(new InputStreamReader(
+                                    socket.getInputStream(), "UTF-8")),
+                            new PrintWriter(new OutputStreamWriter(
+                                    socket.getOutputStream(), "UTF-8")));
+                }
+                finally {
+                    socket.close();
+                }
+            }
+        }
+        finally {
+            server.close();
+        }
+    }
+
+    private void check(List<String> paths, PrintWriter out) {
+        long start = System.nanoTime();
+        List<PhasedUnit> checked;
+        try {
+            //new packages are added to the module
+            module.thaw();
+            scan();
+            checked = units.check();
+        }
+        catch (Exception e) {
+            //the units for which a phase failed will be
+            //analysed again by the next request
+            out.println("Failure: " + e);
+            return;
+        }
+        Set<File> files = new HashSet<File>();
+        for (String path: paths) {
+            files.add(new File(path).getAbsoluteFile());
+        }
+        int errors = 0;
+        for (PhasedUnit pu: units.getUnits()) {
+            if (files.isEmpty() || files.contains(pu.getFile().getAbsoluteFile())) {
+                errors += printErrors(pu, out);
+            }
+        }
+        out.println("Checked " + checked.size() + " of " + units.getUnits().size() +
+                " files with " + errors + " errors in " +
+                (System.nanoTime()-start)/1000000 + " ms");
+    }
+
+    private void at(List<String> args, PrintWriter out) {
+        PositionIndex index = getPositionIndex(args, out);
+        if (index==null) {
+            return;
+        }
+        int line = Integer.parseInt(args.get(1));
+        int col = Integer.parseInt(args.get(2));
+        Node node = index.getNodeAt(line, col);
+        if (node!=null) {
+            out.println("Node: " + node + " at line " + 
+                    node.getLine() + ":" + node.getCharPositionInLine());
+        }
+        Tree.Declaration dec = index.getDeclarationAt(line, col);
+        if (dec!=null && dec.getModelNode()!=null) {
+            out.println("Declaration: " + dec.getModelNode());
+        }
+    }
+
+    private void usages(List<String> args, PrintWriter out) {
+        PositionIndex index = getPositionIndex(args, out);
+        if (index==null) {
+            return;
+        }
+        Tree.Declaration dec = index.getDeclarationAt(
+                Integer.parseInt(args.get(1)), Integer.parseInt(args.get(2)));
+        if (dec==null || !(dec.getModelNode() instanceof Declaration)) {
+            out.println("No declaration");
+            return;
+        }
+        Declaration d = (Declaration) dec.getModelNode();
+        out.println("Declaration: " + d);
+        Map<Unit, File> files = new HashMap<Unit, File>();
+        for (PhasedUnit pu: units.getUnits()) {
+            files.put(pu.getUnit(), pu.getFile());
+        }
+        for (Node node: d.getUnit().getPackage().getReferences().getReferences(d)) {
+            File file = files.get(node.getUnit());
+            out.println("Reference in " + (file==null ? "?" : file.getName()) + 
+                    ": line " + node.getLine() + ":" + node.getCharPositionInLine());
+        }
+    }
+
+    /**
+     * The position index of the file given by the first
+     * of the arguments of a request, if the position 
+     * given by the others is in the file, or null.
+     */
+    private PositionIndex getPositionIndex(List<String> args, PrintWriter out) {
+        if (args.size()!=3) {
+            out.println("Usage: file line col");
+            return null;
+        }
+        File file = new File(args.get(0)).getAbsoluteFile();
+        PositionIndex index = null;
+        for (PhasedUnit pu: units.getUnits()) {
+            if (pu.getFile().getAbsoluteFile().equals(file)) {
+                index = pu.getPositionIndex();
+            }
+        }
+        if (index==null) {
+            out.println("Not checked: " + args.get(0));
+            return null;
+        }
+        try {
+            index.getLineTable().getOffset(Integer.parseInt(args.get(1)), 
+                    Integer.parseInt(args.get(2)));
+        }
+        catch (RuntimeException re) {
+            out.println("No such position: " + args.get(1) + ":" + args.get(2));
+            return null;
+        }
+        return index;
+    }
+
+    private static int printErrors(PhasedUnit pu, PrintWriter out) {
+        String name = pu.getFile().getName();
+        int errors = 0;
+        for (String le: pu.getLexErrors()) {
+            out.println("Lexer error in " + name + ": " + le);
+            errors++;
+        }
+        for (String pe: pu.getParseErrors()) {
+            out.println("Parser error in " + name + ": " + pe);
+            errors++;
+        }
+        for (AnalysisError ae: pu.getAnalysisErrors()) {
+            out.println("Error in " + name + ": " + ae);
+            errors++;
+        }
+        return errors;
+    }
+
+    /**
+     * Add the files which were created under the root
+     * since the last request, and remove the files
+     * which were deleted.
+     */
+    private void scan() {
+        Set<File> found = new HashSet<File>();
+        scan(root, new ArrayList<String>(), found);
+        List<File> removed = new ArrayList<File>();
+        for (PhasedUnit pu: units.getUnits()) {
+            if (!found.contains(pu.getFile())) {
+                removed.add(pu.getFile());
+            }
+        }
+        for (File file: removed) {
+            units.remove(file);
+        }
+    }
+
+    private void scan(File file, List<String> packageName, Set<File> found) {
+        File[] files = file.isDirectory() ?
+                file.listFiles() : new File[] { file };
+        if (files==null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override public int compare(File x, File y) {
+                return x.getName().compareTo(y.getName());
+            }
+        });
+        for (File f: files) {
+            if (f.isDirectory()) {
+                List<String> name = new ArrayList<String>(packageName);
+                name.add(f.getName());
+                scan(f, name, found);
+            }
+            else if ( f.getName().endsWith(".ceylon") ) {
+                found.add(f);
+                units.add(f, getPackage(packageName));
+            }
+        }
+    }
+
+    private Package getPackage(List<String> packageName) {
+        Package p = packages.get(packageName);
+        if (p==null) {
+            p = new Package();
+            p.setName( packageName.isEmpty() ?
+                    Arrays.asList(new String[]{"test"}) : packageName );
+            p.setModule(module);
+            module.getPackages().add(p);
+            packages.put(packageName, p);
+        }
+        return p;
+    }
+
+}
@@ -0,0 +1,793 @@
+package com.redhat.ceylon.compiler.driver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.redhat.ceylon.compiler.model.Class;
+import com.redhat.ceylon.compiler.model.Declaration;
+import com.redhat.ceylon.compiler.model.GenericType;
+import com.redhat.ceylon.compiler.model.Getter;
+import com.redhat.ceylon.compiler.model.Interface;
+import com.redhat.ceylon.compiler.model.Method;
+import com.redhat.ceylon.compiler.model.Package;
+import com.redhat.ceylon.compiler.model.Parameter;
+import com.redhat.ceylon.compiler.model.Scope;
+import com.redhat.ceylon.compiler.model.SimpleValue;
+import com.redhat.ceylon.compiler.model.Symbol;
+import com.redhat.ceylon.compiler.model.SymbolTable;
+import com.redhat.ceylon.compiler.model.Type;
+import com.redhat.ceylon.compiler.model.TypeFactory;
+import com.redhat.ceylon.compiler.model.TypeParameter;
+import com.redhat.ceylon.compiler.model.Typed;
+import com.redhat.ceylon.compiler.model.Unit;
+import com.redhat.ceylon.compiler.tree.AnalysisError;
+import com.redhat.ceylon.compiler.tree.Tree;
+
+/**
+ * A binary cache of the declarations of each package,
+ * stored in the directory of its sources, from which
+ * the declarations are loaded instead of lexing,
+ * parsing and declaring the sources again when they
+ * have not changed.
+ *
+ * Only the packages which other packages depend upon,
+ * such as ceylon.language, are cached, and only once
+ * each of their units has been analysed completely,
+ * so that the sources under compilation are always
+ * checked. The cache holds the declarations each unit
+ * exposes to other units, with their kinds, names,
+ * types and supertypes, but not their bodies, and the
+ * errors found in the unit, so that they are reported
+ * again when the package is loaded, together with a
+ * digest of the sources of the package. It is valid
+ * if the sources still have that digest, and every
+ * other package it refers to, resolves declarations
+ * in or imports is loaded from a valid cache too, and
+ * still has the digest it had when the cache was
+ * written, and every package it imports which did
+ * not exist still does not.
+ *
+ * The file starts with a table of the strings it
+ * uses, so that each name is written once, and all
+ * counts and indexes are written as variable length
+ * integers.
+ */
+public class DeclarationCache {
+
+    public static final String FILE_NAME = "package.declarations";
+
+    private static final int MAGIC = 0xCE7DECA0;
+    private static final int VERSION = 2;
+
+    private static final int CLASS = 1;
+    private static final int INTERFACE = 2;
+    private static final int METHOD = 3;
+    private static final int SIMPLE_VALUE = 4;
+    private static final int GETTER = 5;
+    private static final int PARAMETER = 6;
+    private static final int TYPE_PARAMETER = 7;
+
+    private static final int NO_TYPE = 0;
+    private static final int UNRESOLVED_TYPE = 1;
+    private static final int TYPE = 2;
+
+    private final Map<Package, byte[]> sourceHashes = new HashMap<Package, byte[]>();
+    private final Map<Package, File> directories = new HashMap<Package, File>();
+    private final List<Package> loadedPackages = new ArrayList<Package>();
+    private final Map<PhasedUnit, CachedUnit> cachedUnits = 
+            new LinkedHashMap<PhasedUnit, CachedUnit>();
+
+    /**
+     * Load the declarations of every package of the
+     * given units which has a valid cache, and return
+     * the units of the other packages, which must be
+     * compiled from source.
+     */
+    public List<PhasedUnit> load(List<PhasedUnit> units) throws IOException {
+        Map<Package, List<PhasedUnit>> byPackage = byPackage(units);
+        Map<Package, CacheFile> valid = new LinkedHashMap<Package, CacheFile>();
+        for (Map.Entry<Package, List<PhasedUnit>> e: byPackage.entrySet()) {
+            Package pkg = e.getKey();
+            sourceHashes.put(pkg, getSourceHash(e.getValue()));
+            directories.put(pkg, e.getValue().get(0).getFile().getAbsoluteFile().getParentFile());
+            CacheFile cf = CacheFile.read(getCacheFile(pkg));
+            if (cf!=null && cf.packageName.equals(pkg.getName()) &&
+                    Arrays.equals(cf.sourceHash, sourceHashes.get(pkg))) {
+                valid.put(pkg, cf);
+            }
+        }
+
+        //a cache is only valid if the packages it refers
+        //to are also loaded from their caches, unchanged
+        boolean changed;
+        do {
+            changed = false;
+            for (Iterator<Map.Entry<Package, CacheFile>> iter = valid.entrySet().iterator();
+                    iter.hasNext();) {
+                Map.Entry<Package, CacheFile> e = iter.next();
+                for (Map.Entry<List<String>, byte[]> ref: e.getValue().references.entrySet()) {
+                    Package rp = e.getKey().getModule().getPackage(ref.getKey());
+                    //an imported package which did not exist
+                    //is recorded with no digest
+                    boolean stillMissing = rp==null && ref.getValue().length==0;
+                    if (!stillMissing && (rp==null || !valid.containsKey(rp) ||
+                            !Arrays.equals(ref.getValue(), sourceHashes.get(rp)))) {
+                        iter.remove();
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        while (changed);
+
+        List<Link> links = new ArrayList<Link>();
+        for (Map.Entry<Package, CacheFile> e: valid.entrySet()) {
+            Map<String, PhasedUnit> byName = new HashMap<String, PhasedUnit>();
+            for (PhasedUnit pu: byPackage.get(e.getKey())) {
+                byName.put(pu.getFile().getName(), pu);
+            }
+            for (CachedUnit cu: e.getValue().declare(e.getKey(), links)) {
+                cachedUnits.put(byName.get(cu.getFileName()), cu);
+            }
+            loadedPackages.add(e.getKey());
+        }
+        for (Link link: links) {
+            link.resolve();
+        }
+
+        List<PhasedUnit> remaining = new ArrayList<PhasedUnit>();
+        for (PhasedUnit pu: units) {
+            if (!valid.containsKey(pu.getPackage())) {
+                remaining.add(pu);
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * The packages loaded from their caches.
+     */
+    public List<Package> getLoadedPackages() {
+        return Collections.unmodifiableList(loadedPackages);
+    }
+
+    /**
+     * The units of the packages loaded from their
+     * caches, with the errors found in them when they
+     * were cached.
+     */
+    public List<CachedUnit> getCachedUnits() {
+        return Collections.unmodifiableList(new ArrayList<CachedUnit>(cachedUnits.values()));
+    }
+
+    /**
+     * The cached unit loaded in place of the given unit
+     * passed to load(), or null if the unit must be
+     * compiled from source.
+     */
+    public CachedUnit getCachedUnit(PhasedUnit unit) {
+        return cachedUnits.get(unit);
+    }
+
+    /**
+     * Write the cache of each package of the given
+     * units which another package depends upon, and
+     * whose units were all analysed completely, once
+     * their expressions have been analysed. The cache of
+     * any other package is deleted. A package which
+     * can't be cached, because it refers to a
+     * declaration local to a body, or to a package
+     * which was not passed to load(), is skipped.
+     */
+    public void save(List<PhasedUnit> units) throws IOException {
+        Set<Package> dependencies = new HashSet<Package>();
+        for (PhasedUnit pu: units) {
+            if (pu.getUnit()!=null) {
+                for (Unit u: pu.getUnit().getDependencies()) {
+                    if (u.getPackage()!=pu.getPackage()) {
+                        dependencies.add(u.getPackage());
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Package, List<PhasedUnit>> e: byPackage(units).entrySet()) {
+            Package pkg = e.getKey();
+            File file = getCacheFile(pkg);
+            if (file==null) {
+                continue;
+            }
+            boolean cacheable = dependencies.contains(pkg);
+            for (PhasedUnit pu: e.getValue()) {
+                cacheable &= pu.getCompletedPhase()==Phase.EXPRESSIONS;
+            }
+            byte[] content = cacheable ? write(pkg, e.getValue()) : null;
+            if (content==null) {
+                file.delete();
+            }
+            else {
+                File temp = new File(file.getPath() + ".tmp");
+                OutputStream os = new FileOutputStream(temp);
+                try {
+                    os.write(content);
+                }
+                finally {
+                    os.close();
+                }
+                if (!temp.renameTo(file)) {
+                    file.delete();
+                    temp.renameTo(file);
+                }
+            }
+        }
+    }
+
+    private File getCacheFile(Package pkg) {
+        File dir = directories.get(pkg);
+        return dir==null ? null : new File(dir, FILE_NAME);
+    }
+
+    private static Map<Package, List<PhasedUnit>> byPackage(List<PhasedUnit> units) {
+        Map<Package, List<PhasedUnit>> byPackage = new LinkedHashMap<Package, List<PhasedUnit>>();
+        for (PhasedUnit pu: units) {
+            List<PhasedUnit> list = byPackage.get(pu.getPackage());
+            if (list==null) {
+                list = new ArrayList<PhasedUnit>();
+                byPackage.put(pu.getPackage(), list);
+            }
+            list.add(pu);
+        }
+        return byPackage;
+    }
+
+    /**
+     * A digest of the names and contents of the files
+     * of a package.
+     */
+    private static byte[] getSourceHash(List<PhasedUnit> units) throws IOException {
+        List<PhasedUnit> sorted = new ArrayList<PhasedUnit>(units);
+        Collections.sort(sorted, new Comparator<PhasedUnit>() {
+            @Override public int compare(PhasedUnit x, PhasedUnit y) {
+                return x.getFile().getName().compareTo(y.getFile().getName());
+            }
+        });
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException nsae) {
+            throw new RuntimeException(nsae);
+        }
+        for (PhasedUnit pu: sorted) {
+            digest.update(pu.getFile().getName().getBytes("UTF-8"));
+            digest.update(pu.readContentHash());
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Serialize the exposed declarations of the units,
+     * or return null if the package can't be cached.
+     */
+    private byte[] write(Package pkg, List<PhasedUnit> units) throws IOException {
+        Writer body = new Writer();
+        //the packages imported by the units which did not
+        //exist, by name
+        Set<List<String>> missing = new LinkedHashSet<List<String>>();
+        body.writeInt(units.size());
+        for (PhasedUnit pu: units) {
+            body.writeString(pu.getFile().getName());
+            body.writeStrings(pu.getLexErrors());
+            body.writeStrings(pu.getParseErrors());
+            List<String> errors = new ArrayList<String>();
+            for (AnalysisError ae: pu.getAnalysisErrors()) {
+                errors.add(ae.toString());
+            }
+            body.writeStrings(errors);
+            //the errors in the unit depend upon the packages
+            //it resolved declarations in, and those it imports
+            for (Unit u: pu.getUnit().getDependencies()) {
+                if (u.getPackage()!=null) {
+                    body.references.add(u.getPackage());
+                }
+            }
+            if (pu.getCompilationUnit().getImportList()!=null) {
+                for (Tree.Import i: pu.getCompilationUnit().getImportList().getImports()) {
+                    if (i.getImportPath()!=null) {
+                        List<String> name = new ArrayList<String>();
+                        for (Tree.Identifier id: i.getImportPath().getIdentifiers()) {
+                            name.add(id.getText());
+                        }
+                        Package ip = pkg.getModule().getPackage(name);
+                        if (ip==null) {
+                            missing.add(name);
+                        }
+                        else {
+                            body.references.add(ip);
+                        }
+                    }
+                }
+            }
+            List<Declaration> declarations =
+                    ExposedDeclarations.getToplevelDeclarations(pkg, pu.getUnit());
+            body.writeInt(declarations.size());
+            for (Declaration d: declarations) {
+                if (!body.writeDeclaration(d)) {
+                    return null;
+                }
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        Writer header = new Writer(body.strings);
+        header.writeNames(pkg.getName());
+        header.writeBytes(sourceHashes.get(pkg));
+        body.references.remove(pkg);
+        header.writeInt(body.references.size() + missing.size());
+        for (Package rp: body.references) {
+            byte[] hash = sourceHashes.get(rp);
+            if (hash==null) {
+                return null;
+            }
+            header.writeNames(rp.getName());
+            header.writeBytes(hash);
+        }
+        for (List<String> name: missing) {
+            header.writeNames(name);
+            header.writeBytes(new byte[0]);
+        }
+        writeInt(out, body.strings.size());
+        for (String s: body.strings.keySet()) {
+            out.writeUTF(s);
+        }
+        header.bytes.writeTo(out);
+        body.bytes.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeInt(DataOutputStream out, int i) throws IOException {
+        while ((i & ~0x7F)!=0) {
+            out.writeByte((i & 0x7F) | 0x80);
+            i >>>= 7;
+        }
+        out.writeByte(i);
+    }
+
+    private static int readInt(DataInputStream in) throws IOException {
+        int i = 0;
+        for (int shift=0;; shift+=7) {
+            int b = in.readUnsignedByte();
+            i |= (b & 0x7F) << shift;
+            if ((b & 0x80)==0) {
+                return i;
+            }
+        }
+    }
+
+    private static class Writer {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        final Map<String, Integer> strings;
+        final Set<Package> references = new LinkedHashSet<Package>();
+
+        Writer() {
+            this(new LinkedHashMap<String, Integer>());
+        }
+
+        Writer(Map<String, Integer> strings) {
+            this.strings = strings;
+        }
+
+        void writeInt(int i) throws IOException {
+            DeclarationCache.writeInt(out, i);
+        }
+
+        void writeString(String s) throws IOException {
+            Integer index = strings.get(s);
+            if (index==null) {
+                index = strings.size();
+                strings.put(s, index);
+            }
+            writeInt(index);
+        }
+
+        void writeNames(List<String> names) throws IOException {
+            writeInt(names.size());
+            for (String name: names) {
+                writeString(name);
+            }
+        }
+
+        void writeBytes(byte[] b) throws IOException {
+            writeInt(b.length);
+            out.write(b);
+        }
+
+        void writeStrings(List<String> list) throws IOException {
+            writeInt(list.size());
+            for (String string: list) {
+                writeString(string);
+            }
+        }
+
+        boolean writeDeclaration(Declaration d) throws IOException {
+            writeInt(getKind(d));
+            writeString(d.getName());
+            if (d instanceof Typed) {
+                if (!writeType(((Typed) d).getType())) {
+                    return false;
+                }
+            }
+            if (d instanceof GenericType) {
+                GenericType gt = (GenericType) d;
+                if (!writeType(gt.getExtendedType())) {
+                    return false;
+                }
+                writeInt(gt.getSatisfiedTypes().size());
+                for (Type t: gt.getSatisfiedTypes()) {
+                    if (!writeType(t)) {
+                        return false;
+                    }
+                }
+            }
+            if (d instanceof Scope) {
+                List<Declaration> members = ExposedDeclarations.getMembers(d);
+                writeInt(members.size());
+                for (Declaration member: members) {
+                    if (!writeDeclaration(member)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Write a reference to the declaration of the type
+         * by the name of its package and the names of its
+         * containers, and its type arguments.
+         */
+        boolean writeType(Type t) throws IOException {
+            if (t==null) {
+                writeInt(NO_TYPE);
+                return true;
+            }
+            if (t.getGenericType()==null) {
+                writeInt(UNRESOLVED_TYPE);
+                return true;
+            }
+            List<String> path = new ArrayList<String>();
+            Declaration d = t.getGenericType();
+            Scope scope;
+            while (true) {
+                path.add(0, d.getName());
+                scope = d.getContainer();
+                if (!(scope instanceof Declaration)) {
+                    break;
+                }
+                d = (Declaration) scope;
+            }
+            if (!(scope instanceof Package)) {
+                return false;
+            }
+            references.add((Package) scope);
+            writeInt(TYPE);
+            writeNames(((Package) scope).getName());
+            writeNames(path);
+            writeInt(t.getTypeArguments().size());
+            for (Type ta: t.getTypeArguments()) {
+                if (!writeType(ta)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        static int getKind(Declaration d) {
+            if (d instanceof Class) return CLASS;
+            if (d instanceof Interface) return INTERFACE;
+            if (d instanceof Method) return METHOD;
+            if (d instanceof SimpleValue) return SIMPLE_VALUE;
+            if (d instanceof Getter) return GETTER;
+            if (d instanceof Parameter) return PARAMETER;
+            if (d instanceof TypeParameter) return TYPE_PARAMETER;
+            throw new IllegalArgumentException("unexpected declaration: " + d);
+        }
+    }
+
+    /**
+     * A cache file read from disk, whose header has been
+     * decoded, and whose declarations are decoded when
+     * the package is declared.
+     */
+    private static class CacheFile {
+        List<String> packageName;
+        byte[] sourceHash;
+        final Map<List<String>, byte[]> references = new LinkedHashMap<List<String>, byte[]>();
+        String[] strings;
+        DataInputStream in;
+        Package pkg;
+
+        /**
+         * Read the cache file, or return null if there is
+         * no such file, or if it was written by another
+         * version, or is damaged.
+         */
+        static CacheFile read(File file) throws IOException {
+            if (file==null || !file.isFile()) {
+                return null;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            InputStream is = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = is.read(buffer))>0) {
+                    bytes.write(buffer, 0, n);
+                }
+            }
+            finally {
+                is.close();
+            }
+            CacheFile cf = new CacheFile();
+            cf.in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            try {
+                if (cf.in.readInt()!=MAGIC || cf.in.readInt()!=VERSION) {
+                    return null;
+                }
+                cf.strings = new String[readInt(cf.in)];
+                for (int i=0; i<cf.strings.length; i++) {
+                    cf.strings[i] = cf.in.readUTF();
+                }
+                cf.packageName = cf.readNames();
+                cf.sourceHash = cf.readBytes();
+                int count = readInt(cf.in);
+                for (int i=0; i<count; i++) {
+                    cf.references.put(cf.readNames(), cf.readBytes());
+                }
+                return cf;
+            }
+            catch (IOException ioe) {
+                return null;
+            }
+            catch (IndexOutOfBoundsException ioobe) {
+                return null;
+            }
+        }
+
+        String readString() throws IOException {
+            return strings[readInt(in)];
+        }
+
+        List<String> readNames() throws IOException {
+            String[] names = new String[readInt(in)];
+            for (int i=0; i<names.length; i++) {
+                names[i] = readString();
+            }
+            return Arrays.asList(names);
+        }
+
+        byte[] readBytes() throws IOException {
+            byte[] b = new byte[readInt(in)];
+            in.readFully(b);
+            return b;
+        }
+
+        List<String> readStrings() throws IOException {
+            String[] list = new String[readInt(in)];
+            for (int i=0; i<list.length; i++) {
+                list[i] = readString();
+            }
+            return Arrays.asList(list);
+        }
+
+        /**
+         * Add the declarations to the package, with one
+         * unit for each unit which was cached, collecting
+         * the types to be resolved once every package has
+         * been declared, and return the cached units.
+         */
+        List<CachedUnit> declare(Package pkg, List<Link> links) throws IOException {
+            this.pkg = pkg;
+            List<CachedUnit> result = new ArrayList<CachedUnit>();
+            int units = readInt(in);
+            for (int i=0; i<units; i++) {
+                Unit unit = new Unit();
+                unit.setPackage(pkg);
+                result.add(new CachedUnit(readString(),
+                        readStrings(), readStrings(), readStrings()));
+                int count = readInt(in);
+                for (int j=0; j<count; j++) {
+                    readDeclaration(pkg, unit, links);
+                }
+            }
+            return result;
+        }
+
+        private void readDeclaration(Scope container, Unit unit, List<Link> links)
+                throws IOException {
+            final Declaration d;
+            int kind = readInt(in);
+            switch (kind) {
+            case CLASS: d = new Class(); break;
+            case INTERFACE: d = new Interface(); break;
+            case METHOD: d = new Method(); break;
+            case SIMPLE_VALUE: d = new SimpleValue(); break;
+            case GETTER: d = new Getter(); break;
+            case PARAMETER: d = new Parameter(); break;
+            case TYPE_PARAMETER: d = new TypeParameter(); break;
+            default: throw new IOException("unexpected declaration kind: " + kind);
+            }
+            d.setName(pkg.getModule().getSymbolTable().intern(readString()));
+            d.setUnit(unit);
+            d.setContainer(container);
+            container.getMembers().add(d);
+            if (d instanceof Typed) {
+                links.add(new Link(readType(), pkg) {
+                    @Override void set(Type t) {
+                        ((Typed) d).setType(t);
+                    }
+                });
+            }
+            if (d instanceof GenericType) {
+                links.add(new Link(readType(), pkg) {
+                    @Override void set(Type t) {
+                        ((GenericType) d).setExtendedType(t);
+                    }
+                });
+                int count = readInt(in);
+                for (int i=0; i<count; i++) {
+                    links.add(new Link(readType(), pkg) {
+                        @Override void set(Type t) {
+                            ((GenericType) d).getSatisfiedTypes().add(t);
+                        }
+                    });
+                }
+            }
+            if (d instanceof Scope) {
+                int count = readInt(in);
+                for (int i=0; i<count; i++) {
+                    readDeclaration((Scope) d, unit, links);
+                }
+            }
+        }
+
+        private TypeReference readType() throws IOException {
+            int tag = readInt(in);
+            if (tag==NO_TYPE) {
+                return null;
+            }
+            TypeReference ref = new TypeReference();
+            if (tag==TYPE) {
+                ref.packageName = readNames();
+                ref.path = readNames();
+                int count = readInt(in);
+                for (int i=0; i<count; i++) {
+                    ref.typeArguments.add(readType());
+                }
+            }
+            return ref;
+        }
+    }
+
+    /**
+     * A unit of a package loaded from its cache, with the
+     * errors found in it when it was cached, formatted as
+     * they were reported.
+     */
+    public static class CachedUnit {
+        private final String fileName;
+        private final List<String> lexErrors;
+        private final List<String> parseErrors;
+        private final List<String> analysisErrors;
+
+        CachedUnit(String fileName, List<String> lexErrors,
+                List<String> parseErrors, List<String> analysisErrors) {
+            this.fileName = fileName;
+            this.lexErrors = lexErrors;
+            this.parseErrors = parseErrors;
+            this.analysisErrors = analysisErrors;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public List<String> getLexErrors() {
+            return lexErrors;
+        }
+
+        public List<String> getParseErrors() {
+            return parseErrors;
+        }
+
+        public List<String> getAnalysisErrors() {
+            return analysisErrors;
+        }
+    }
+
+    /**
+     * A reference to a type, by the names of its package
+     * and of its declaration and containers, or to the
+     * unresolved type if there are no names.
+     */
+    private static class TypeReference {
+        List<String> packageName;
+        List<String> path;
+        final List<TypeReference> typeArguments = new ArrayList<TypeReference>();
+
+        Type resolve(Package from) {
+            if (packageName==null) {
+                return TypeFactory.getType(null);
+            }
+            Package pkg = from.getModule().getPackage(packageName);
+            Scope scope = pkg;
+            Declaration d = null;
+            SymbolTable symbols = from.getModule().getSymbolTable();
+            for (String name: path) {
+                Symbol symbol = symbols.get(name);
+                d = scope==null || symbol==null ?
+                        null : scope.getDirectMember(symbol);
+                scope = d instanceof Scope ? (Scope) d : null;
+            }
+            if (!(d instanceof GenericType)) {
+                throw new RuntimeException("Cached type not found: " +
+                        packageName + path);
+            }
+            List<Type> args = new ArrayList<Type>();
+            for (TypeReference ta: typeArguments) {
+                args.add(ta==null ? null : ta.resolve(from));
+            }
+            return TypeFactory.getType((GenericType) d, args);
+        }
+    }
+
+    /**
+     * A type of a cached declaration, to be set once it
+     * has been resolved.
+     */
+    private static abstract class Link {
+        final TypeReference ref;
+        final Package pkg;
+
+        Link(TypeReference ref, Package pkg) {
+            this.ref = ref;
+            this.pkg = pkg;
+        }
+
+        void resolve() {
+            if (ref!=null) {
+                set(ref.resolve(pkg));
+            }
+        }
+
+        abstract void set(Type t);
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.redhat.ceylon.compiler.driver;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.redhat.ceylon.compiler.tree.FusedVisitor;
+import com.redhat.ceylon.compiler.tree.Pass;
+import com.redhat.ceylon.compiler.tree.Tree;
+
+/**
+ * Runs a phase over the toplevel declarations of a
+ * compilation unit concurrently, on a work-stealing
+ * pool, with a pass of its own for each declaration.
+ * The declarations are split in halves, and the halves
+ * split again, down to a single declaration.
+ *
+ * The type and expression phases record their results
+ * on the nodes and in the models of the declaration
+ * they check, or in the unit, where the results do not
+ * depend on the order in which declarations are
+ * checked, and the errors they record are reported
+ * ordered by position. If the phase fails with an
+ * exception for some declarations, the failure of the
+ * first of them, in the order they occur in the unit,
+ * is rethrown once all of them have been checked, so
+ * the unit fails as it would when checked from start
+ * to end.
+ */
+abstract class DeclarationTasks {
+
+    /**
+     * A new pass for the phase, used for a single
+     * declaration.
+     */
+    abstract Pass createPass();
+
+    void run(ForkJoinPool pool, List<Tree.Declaration> declarations) {
+        RuntimeException[] failures = new RuntimeException[declarations.size()];
+        pool.invoke(new Task(declarations, failures, 0, declarations.size()));
+        for (RuntimeException e: failures) {
+            if (e!=null) {
+                throw e;
+            }
+        }
+    }
+
+    private class Task extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Tree.Declaration> declarations;
+        private final RuntimeException[] failures;
+        private final int from;
+        private final int to;
+
+        Task(List<Tree.Declaration> declarations, RuntimeException[] failures,
+                int from, int to) {
+            this.declarations = declarations;
+            this.failures = failures;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to-from==1) {
+                try {
+                    //the pass is walked iteratively, so that deeply
+                    //nested expressions cannot overflow the stack
+                    FusedVisitor fv = new FusedVisitor(createPass());
+                    fv.setIterative(true);
+                    declarations.get(from).visit(fv);
+                }
+                catch (RuntimeException e) {
+                    failures[from] = e;
+                }
+            }
+            else if (to>from) {
+                int mid = (from+to)>>>1;
+                invokeAll(new Task(declarations, failures, from, mid),
+                        new Task(declarations, failures, mid, to));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.redhat.ceylon.compiler.driver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.redhat.ceylon.compiler.model.ClassOrInterface;
+import com.redhat.ceylon.compiler.model.Declaration;
+import com.redhat.ceylon.compiler.model.Functional;
+import com.redhat.ceylon.compiler.model.Package;
+import com.redhat.ceylon.compiler.model.Parameter;
+import com.redhat.ceylon.compiler.model.Scope;
+import com.redhat.ceylon.compiler.model.Structure;
+import com.redhat.ceylon.compiler.model.TypeParameter;
+import com.redhat.ceylon.compiler.model.Unit;
+
+/**
+ * The declarations of a unit which other units may
+ * refer to: its toplevel declarations, the members of
+ * classes and interfaces, and the parameters and type
+ * parameters of methods, but not the declarations
+ * local to a body.
+ */
+final class ExposedDeclarations {
+
+    private ExposedDeclarations() {}
+
+    static List<Declaration> getToplevelDeclarations(Package pkg, Unit unit) {
+        List<Declaration> declarations = new ArrayList<Declaration>();
+        for (Structure s: pkg.getMembers()) {
+            if (s.getUnit()==unit && s instanceof Declaration) {
+                declarations.add((Declaration) s);
+            }
+        }
+        return declarations;
+    }
+
+    static List<Declaration> getMembers(Declaration d) {
+        List<Declaration> members = new ArrayList<Declaration>();
+        if (d instanceof ClassOrInterface || d instanceof Functional) {
+            for (Structure s: ((Scope) d).getMembers()) {
+                if (d instanceof ClassOrInterface && s instanceof Declaration ||
+                        s instanceof Parameter || s instanceof TypeParameter) {
+                    members.add((Declaration) s);
+                }
+            }
+        }
+        return members;
+    }
+
+}
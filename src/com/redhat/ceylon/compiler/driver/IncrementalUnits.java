@@ -0,0 +1,322 @@
+package com.redhat.ceylon.compiler.driver;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import com.redhat.ceylon.compiler.analyzer.SubtypeChecker;
+import com.redhat.ceylon.compiler.model.Declaration;
+import com.redhat.ceylon.compiler.model.GenericType;
+import com.redhat.ceylon.compiler.model.Package;
+import com.redhat.ceylon.compiler.model.Scope;
+import com.redhat.ceylon.compiler.model.Symbol;
+import com.redhat.ceylon.compiler.model.Type;
+import com.redhat.ceylon.compiler.model.Typed;
+import com.redhat.ceylon.compiler.model.Unit;
+
+/**
+ * Keeps the model of a set of compilation units up to
+ * date as their files are edited, added and removed,
+ * analysing again only the units which need it.
+ *
+ * A unit is parsed again only if the contents of its
+ * file changed. It is then declared again in place,
+ * reusing its model, so that the other units which
+ * refer to its declarations remain valid. If the
+ * signature of the unit, that is, the names, kinds
+ * and types of the declarations it exposes, changed,
+ * the units which depend upon it, as recorded when
+ * they resolved its declarations, are analysed again
+ * too, and so on, for as long as signatures change.
+ * So are the units which looked up a name among the
+ * toplevel declarations of packages, whether or not
+ * it resolved, if a unit gained or lost a toplevel
+ * declaration with that name, since the name may now
+ * resolve differently.
+ *
+ * The model is frozen while expressions are analysed,
+ * and thawed by the next check.
+ *
+ * A unit for which some phase failed is analysed
+ * again by the next check, until it succeeds.
+ */
+public class IncrementalUnits {
+
+    private final Map<File, PhasedUnit> units = new LinkedHashMap<File, PhasedUnit>();
+    private final Map<PhasedUnit, byte[]> signatures = new HashMap<PhasedUnit, byte[]>();
+    private final Map<PhasedUnit, Set<Symbol>> toplevelNames = new HashMap<PhasedUnit, Set<Symbol>>();
+    private final Set<PhasedUnit> stale = new HashSet<PhasedUnit>();
+    private final ForkJoinPool pool;
+    private final SubtypeChecker subtypeChecker = new SubtypeChecker();
+    private PhaseListener listener;
+
+    public IncrementalUnits(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Add a file, to be analysed by the next check.
+     */
+    public PhasedUnit add(File file, Package pkg) {
+        PhasedUnit pu = units.get(file);
+        if (pu==null) {
+            pu = new PhasedUnit(file, pkg);
+            pu.setPhaseListener(listener);
+            units.put(file, pu);
+            stale.add(pu);
+        }
+        return pu;
+    }
+
+    /**
+     * Remove a file, removing its declarations from
+     * its package. The units which depend upon it are
+     * analysed again by the next check.
+     */
+    public void remove(File file) {
+        PhasedUnit pu = units.remove(file);
+        if (pu!=null) {
+            pu.thaw();
+            pu.undeclare();
+            stale.remove(pu);
+            signatures.remove(pu);
+            stale.addAll(getDependents(pu));
+            Set<Symbol> lost = toplevelNames.remove(pu);
+            if (lost!=null) {
+                stale.addAll(getNameDependents(lost));
+            }
+        }
+    }
+
+    public PhasedUnit getUnit(File file) {
+        return units.get(file);
+    }
+
+    public Collection<PhasedUnit> getUnits() {
+        return Collections.unmodifiableCollection(units.values());
+    }
+
+    public SubtypeChecker getSubtypeChecker() {
+        return subtypeChecker;
+    }
+
+    public void setPhaseListener(PhaseListener listener) {
+        this.listener = listener;
+        for (PhasedUnit pu: units.values()) {
+            pu.setPhaseListener(listener);
+        }
+    }
+
+    /**
+     * Bring the model up to date with the files, and
+     * return the units which were analysed again, in
+     * the order they were added. If a phase fails for
+     * some unit, the failure is rethrown once the phase
+     * has completed, as for PhasedUnits.
+     */
+    public List<PhasedUnit> check() throws Exception {
+        List<PhasedUnit> edited = new ArrayList<PhasedUnit>();
+        for (PhasedUnit pu: units.values()) {
+            if (pu.getContentHash()==null ||
+                    !Arrays.equals(pu.getContentHash(), pu.readContentHash())) {
+                edited.add(pu);
+                stale.add(pu);
+            }
+        }
+        if (stale.isEmpty()) {
+            freeze();
+            return Collections.emptyList();
+        }
+        //the model is declared again in place
+        for (PhasedUnit pu: units.values()) {
+            pu.thaw();
+        }
+        //cached subtyping results may refer to supertypes
+        //which are about to change
+        subtypeChecker.clear();
+        phased(edited).parse();
+
+        Set<PhasedUnit> affected = new HashSet<PhasedUnit>(stale);
+        List<PhasedUnit> wave = inOrder(affected);
+        while (!wave.isEmpty()) {
+            PhasedUnits phased = phased(wave);
+            phased.declare();
+            phased.resolveTypes();
+            Set<PhasedUnit> next = new HashSet<PhasedUnit>();
+            for (PhasedUnit pu: wave) {
+                byte[] signature = getSignature(pu);
+                if (!Arrays.equals(signature, signatures.put(pu, signature))) {
+                    List<PhasedUnit> dependents = getDependents(pu);
+                    dependents.addAll(getNameDependents(updateToplevelNames(pu)));
+                    for (PhasedUnit dependent: dependents) {
+                        if (affected.add(dependent)) {
+                            stale.add(dependent);
+                            next.add(dependent);
+                        }
+                    }
+                }
+            }
+            wave = inOrder(next);
+        }
+
+        List<PhasedUnit> result = inOrder(affected);
+        freeze();
+        phased(result).analyseExpressions();
+        stale.removeAll(affected);
+        return result;
+    }
+
+    private void freeze() {
+        for (PhasedUnit pu: units.values()) {
+            pu.freeze();
+        }
+    }
+
+    private PhasedUnits phased(List<PhasedUnit> list) {
+        PhasedUnits phased = new PhasedUnits(pool, subtypeChecker);
+        for (PhasedUnit pu: list) {
+            phased.add(pu);
+        }
+        phased.setPhaseListener(listener);
+        return phased;
+    }
+
+    private List<PhasedUnit> inOrder(Set<PhasedUnit> set) {
+        List<PhasedUnit> list = new ArrayList<PhasedUnit>();
+        for (PhasedUnit pu: units.values()) {
+            if (set.contains(pu)) {
+                list.add(pu);
+            }
+        }
+        return list;
+    }
+
+    private List<PhasedUnit> getDependents(PhasedUnit pu) {
+        List<PhasedUnit> dependents = new ArrayList<PhasedUnit>();
+        if (pu.getUnit()!=null) {
+            for (PhasedUnit other: units.values()) {
+                Unit u = other.getUnit();
+                if (u!=null && u.getDependencies().contains(pu.getUnit())) {
+                    dependents.add(other);
+                }
+            }
+        }
+        return dependents;
+    }
+
+    /**
+     * The units which looked up any of the given names
+     * among the toplevel declarations of packages.
+     */
+    private List<PhasedUnit> getNameDependents(Set<Symbol> names) {
+        List<PhasedUnit> dependents = new ArrayList<PhasedUnit>();
+        if (!names.isEmpty()) {
+            for (PhasedUnit other: units.values()) {
+                Unit u = other.getUnit();
+                if (u!=null && !Collections.disjoint(u.getNameDependencies(), names)) {
+                    dependents.add(other);
+                }
+            }
+        }
+        return dependents;
+    }
+
+    /**
+     * Remember the names of the toplevel declarations of
+     * the unit, and return the names it gained or lost
+     * since they were last remembered.
+     */
+    private Set<Symbol> updateToplevelNames(PhasedUnit pu) {
+        Set<Symbol> names = new HashSet<Symbol>();
+        for (Declaration d: ExposedDeclarations.getToplevelDeclarations(pu.getPackage(), 
+                pu.getUnit())) {
+            names.add(d.getSymbol());
+        }
+        Set<Symbol> previous = toplevelNames.put(pu, names);
+        Set<Symbol> changed = new HashSet<Symbol>(names);
+        if (previous!=null) {
+            changed.removeAll(previous);
+            for (Symbol name: previous) {
+                if (!names.contains(name)) {
+                    changed.add(name);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * A digest of the declarations the unit exposes to
+     * other units: its toplevel declarations and the
+     * members and parameters they contain, with their
+     * types and all their supertypes.
+     */
+    static byte[] getSignature(PhasedUnit pu) {
+        StringBuilder sb = new StringBuilder();
+        for (Declaration d: ExposedDeclarations.getToplevelDeclarations(pu.getPackage(), 
+                pu.getUnit())) {
+            appendSignature(sb, d);
+        }
+        try {
+            return PhasedUnit.hash(sb.toString().getBytes("UTF-8"));
+        }
+        catch (UnsupportedEncodingException uee) {
+            throw new RuntimeException(uee);
+        }
+    }
+
+    private static void appendSignature(StringBuilder sb, Declaration d) {
+        sb.append(d.getClass().getSimpleName()).append(' ').append(d.getName());
+        if (d instanceof Typed) {
+            sb.append(" : ");
+            appendType(sb, ((Typed) d).getType());
+        }
+        if (d instanceof GenericType) {
+            appendSupertypes(sb, (GenericType) d, new HashSet<GenericType>());
+        }
+        if (d instanceof Scope) {
+            sb.append(" {");
+            for (Declaration member: ExposedDeclarations.getMembers(d)) {
+                appendSignature(sb, member);
+            }
+            sb.append('}');
+        }
+        sb.append(';');
+    }
+
+    private static void appendSupertypes(StringBuilder sb, GenericType gt,
+            Set<GenericType> visited) {
+        List<Type> supertypes = new ArrayList<Type>(gt.getSatisfiedTypes());
+        if (gt.getExtendedType()!=null) {
+            supertypes.add(0, gt.getExtendedType());
+        }
+        for (Type t: supertypes) {
+            sb.append(" < ");
+            appendType(sb, t);
+            GenericType st = t.getGenericType();
+            if (st!=null && visited.add(st)) {
+                appendSupertypes(sb, st, visited);
+            }
+        }
+    }
+
+    private static void appendType(StringBuilder sb, Type t) {
+        if (t==null || t.getGenericType()==null) {
+            sb.append('?');
+        }
+        else {
+            sb.append(t.getProducedTypeName());
+        }
+    }
+
+}
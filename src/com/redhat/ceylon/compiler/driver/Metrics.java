@@ -0,0 +1,142 @@
+package com.redhat.ceylon.compiler.driver;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.redhat.ceylon.compiler.tree.Node;
+import com.redhat.ceylon.compiler.tree.Visitor;
+
+/**
+ * Records the wall time and allocation of each phase
+ * for each compilation unit, together with the number
+ * of tokens and tree nodes of the unit, and reports
+ * them either as a human readable summary or as CSV.
+ */
+public class Metrics implements PhaseListener {
+
+    private final ConcurrentLinkedQueue<Record> records =
+            new ConcurrentLinkedQueue<Record>();
+
+    @Override
+    public void phaseCompleted(PhasedUnit unit, Phase phase,
+            long nanos, long allocatedBytes) {
+        int nodes = 0;
+        if (phase==Phase.BUILD) {
+            NodeCounter counter = new NodeCounter();
+            unit.getCompilationUnit().visit(counter);
+            nodes = counter.count;
+        }
+        records.add(new Record(unit.getFile().getPath(), phase, nanos,
+                allocatedBytes, unit.getTokenCount(), nodes));
+    }
+
+    /**
+     * Print, for each phase, the total, median, 90th and
+     * 99th percentile and maximum time per file, and
+     * the total allocation, followed by the files which
+     * took longest over all phases.
+     */
+    public void printSummary(PrintStream out, int slowestFiles) {
+        Map<Phase, List<Record>> byPhase = new EnumMap<Phase, List<Record>>(Phase.class);
+        Map<String, Long> byFile = new LinkedHashMap<String, Long>();
+        for (Record r: records) {
+            List<Record> list = byPhase.get(r.phase);
+            if (list==null) {
+                list = new ArrayList<Record>();
+                byPhase.put(r.phase, list);
+            }
+            list.add(r);
+            Long total = byFile.get(r.file);
+            byFile.put(r.file, (total==null ? 0 : total) + r.nanos);
+        }
+
+        out.printf("%-12s %6s %10s %9s %9s %9s %9s %10s%n", "phase", "files",
+                "total ms", "p50 ms", "p90 ms", "p99 ms", "max ms", "alloc MB");
+        for (Map.Entry<Phase, List<Record>> e: byPhase.entrySet()) {
+            List<Long> nanos = new ArrayList<Long>();
+            long total = 0;
+            long bytes = 0;
+            for (Record r: e.getValue()) {
+                nanos.add(r.nanos);
+                total += r.nanos;
+                if (r.allocatedBytes>0) bytes += r.allocatedBytes;
+            }
+            Collections.sort(nanos);
+            out.printf("%-12s %6d %10.1f %9.2f %9.2f %9.2f %9.2f %10.1f%n",
+                    e.getKey(), nanos.size(), total / 1e6,
+                    percentile(nanos, 50) / 1e6, percentile(nanos, 90) / 1e6,
+                    percentile(nanos, 99) / 1e6, percentile(nanos, 100) / 1e6,
+                    bytes / (1024.0*1024.0));
+        }
+
+        List<Map.Entry<String, Long>> files = new ArrayList<Map.Entry<String, Long>>(byFile.entrySet());
+        Collections.sort(files, new Comparator<Map.Entry<String, Long>>() {
+            @Override public int compare(Map.Entry<String, Long> x, Map.Entry<String, Long> y) {
+                return y.getValue().compareTo(x.getValue());
+            }
+        });
+        out.println("slowest files:");
+        for (Map.Entry<String, Long> e: files.subList(0, Math.min(slowestFiles, files.size()))) {
+            out.printf("%10.2f ms  %s%n", e.getValue() / 1e6, e.getKey());
+        }
+    }
+
+    /**
+     * Write one line per file and phase, with a header:
+     * file, phase, nanos, allocated bytes, tokens, nodes.
+     * Node counts are recorded by the build phase, and
+     * are zero for the other phases.
+     */
+    public void printCsv(PrintStream out) {
+        out.println("file,phase,nanos,allocatedBytes,tokens,nodes");
+        for (Record r: records) {
+            out.println(r.file + "," + r.phase + "," + r.nanos + "," +
+                    r.allocatedBytes + "," + r.tokens + "," + r.nodes);
+        }
+    }
+
+    private static long percentile(List<Long> sorted, int percent) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.size());
+        return sorted.get(Math.max(rank, 1) - 1);
+    }
+
+    private static final class Record {
+        final String file;
+        final Phase phase;
+        final long nanos;
+        final long allocatedBytes;
+        final int tokens;
+        final int nodes;
+
+        Record(String file, Phase phase, long nanos, long allocatedBytes,
+                int tokens, int nodes) {
+            this.file = file;
+            this.phase = phase;
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+            this.tokens = tokens;
+            this.nodes = nodes;
+        }
+    }
+
+    private static final class NodeCounter extends Visitor {
+        int count;
+
+        @Override
+        public void visitAny(Node that) {
+            count++;
+            super.visitAny(that);
+        }
+    }
+
+}
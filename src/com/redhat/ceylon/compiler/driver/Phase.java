@@ -0,0 +1,14 @@
+package com.redhat.ceylon.compiler.driver;
+
+/**
+ * The phases of the pipeline, in the order they are
+ * run for each compilation unit.
+ */
+public enum Phase {
+    LEX, PARSE, BUILD, DECLARE, TYPES, EXPRESSIONS;
+
+    @Override
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
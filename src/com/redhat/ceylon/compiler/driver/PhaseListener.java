@@ -0,0 +1,22 @@
+package com.redhat.ceylon.compiler.driver;
+
+/**
+ * Notified each time a phase of the pipeline completes
+ * for a compilation unit. Units are processed by many
+ * threads at once, so implementations must be thread
+ * safe. A listener is called on the thread which ran
+ * the phase, after the phase has been measured.
+ */
+public interface PhaseListener {
+
+    /**
+     * @param unit the unit, with the results of the phase
+     * @param phase the phase which completed
+     * @param nanos the wall time spent in the phase
+     * @param allocatedBytes the bytes allocated by the
+     *        phase, or -1 if the JVM can't tell
+     */
+    void phaseCompleted(PhasedUnit unit, Phase phase,
+            long nanos, long allocatedBytes);
+
+}
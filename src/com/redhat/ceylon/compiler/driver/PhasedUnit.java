@@ -0,0 +1,418 @@
+package com.redhat.ceylon.compiler.driver;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.RecognizerSharedState;
+import org.antlr.runtime.TokenStream;
+
+import com.redhat.ceylon.compiler.analyzer.DeclarationVisitor;
+import com.redhat.ceylon.compiler.analyzer.ExpressionVisitor;
+import com.redhat.ceylon.compiler.analyzer.SubtypeChecker;
+import com.redhat.ceylon.compiler.analyzer.TypeVisitor;
+import com.redhat.ceylon.compiler.model.Package;
+import com.redhat.ceylon.compiler.model.Structure;
+import com.redhat.ceylon.compiler.model.Unit;
+import com.redhat.ceylon.compiler.parser.CeylonLexer;
+import com.redhat.ceylon.compiler.parser.CeylonParser;
+import com.redhat.ceylon.compiler.parser.CompactTokenStream;
+import com.redhat.ceylon.compiler.parser.DecisionProfiler;
+import com.redhat.ceylon.compiler.parser.LexError;
+import com.redhat.ceylon.compiler.parser.LineTable;
+import com.redhat.ceylon.compiler.parser.ParseError;
+import com.redhat.ceylon.compiler.parser.SourceCharStream;
+import com.redhat.ceylon.compiler.tree.AnalysisError;
+import com.redhat.ceylon.compiler.tree.FusedVisitor;
+import com.redhat.ceylon.compiler.tree.Node;
+import com.redhat.ceylon.compiler.tree.NodeTreeAdaptor;
+import com.redhat.ceylon.compiler.tree.Pass;
+import com.redhat.ceylon.compiler.tree.PositionIndex;
+import com.redhat.ceylon.compiler.tree.Tree.CompilationUnit;
+
+/**
+ * A source file together with the results of each
+ * phase of the pipeline run so far: lexing, parsing
+ * and tree building, then declaration, type and
+ * expression analysis. The phases must be run in
+ * that order. They may be run again, and the unit is
+ * then declared again in place, reusing its model.
+ */
+public class PhasedUnit {
+
+    private final File file;
+    private final Package pkg;
+    private final List<String> lexErrors = new ArrayList<String>();
+    private final List<String> parseErrors = new ArrayList<String>();
+    private CompilationUnit compilationUnit;
+    private LineTable lineTable;
+    private PositionIndex positionIndex;
+    private Unit unit;
+    private byte[] contentHash;
+    private Phase completedPhase;
+    private int tokenCount;
+    private PhaseListener listener;
+    private DecisionProfiler profiler;
+    private ForkJoinPool splitPool;
+    private int splitThreshold;
+    private long startNanos;
+    private long startBytes;
+
+    public PhasedUnit(File file, Package pkg) {
+        this.file = file;
+        this.pkg = pkg;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Package getPackage() {
+        return pkg;
+    }
+
+    /**
+     * The tree, once the file has been parsed.
+     */
+    public CompilationUnit getCompilationUnit() {
+        return compilationUnit;
+    }
+
+    /**
+     * The start of each line of the file, once it has
+     * been lexed.
+     */
+    public LineTable getLineTable() {
+        return lineTable;
+    }
+
+    /**
+     * An index of the nodes of the tree by their offsets
+     * in the file, built the first time it is asked for
+     * after the file is parsed.
+     */
+    public PositionIndex getPositionIndex() {
+        if (positionIndex==null && compilationUnit!=null) {
+            positionIndex = new PositionIndex(compilationUnit, lineTable);
+        }
+        return positionIndex;
+    }
+
+    /**
+     * The model of the compilation unit, once the
+     * declaration phase has been run.
+     */
+    public Unit getUnit() {
+        return unit;
+    }
+
+    /**
+     * A digest of the contents of the file as it was
+     * last parsed, or null if it has not been parsed.
+     */
+    public byte[] getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Compute a digest of the current contents of the
+     * file, to compare with the one it was parsed from.
+     */
+    public byte[] readContentHash() throws IOException {
+        return hash(SourceCharStream.read(file));
+    }
+
+    /**
+     * The number of tokens in the file, including 
+     * whitespace and comments, once the file has been 
+     * lexed.
+     */
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    /**
+     * The last phase which completed for this unit, or
+     * null if no phase has completed yet.
+     */
+    public Phase getCompletedPhase() {
+        return completedPhase;
+    }
+
+    public void setPhaseListener(PhaseListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Profile the decisions of the parser when the file
+     * is next parsed.
+     */
+    public void setDecisionProfiler(DecisionProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Check the toplevel declarations of the unit
+     * concurrently on the given pool, in the type and
+     * expression phases, if it has at least the given 
+     * number of them. The unit is still declared as a
+     * whole, so that every declaration is in scope by 
+     * the time any of them is checked. The allocation 
+     * reported to the phase listener for a split phase
+     * counts only the calling thread.
+     */
+    public void setSplitPool(ForkJoinPool pool, int threshold) {
+        splitPool = pool;
+        splitThreshold = threshold;
+    }
+
+    public List<String> getLexErrors() {
+        return lexErrors;
+    }
+
+    public List<String> getParseErrors() {
+        return parseErrors;
+    }
+
+    /**
+     * The errors found by the declaration, type and 
+     * expression phases so far, ordered by position.
+     * The phases continue past an error, so a single
+     * run reports every error in the unit.
+     */
+    public List<AnalysisError> getAnalysisErrors() {
+        if (compilationUnit==null) {
+            return Collections.emptyList();
+        }
+        return compilationUnit.getErrors();
+    }
+
+    /**
+     * Lex and parse the file, and build the tree. The
+     * parser builds the tree as it goes, so most of the
+     * cost of building it is counted in the parse phase.
+     */
+    public void parse() throws IOException, RecognitionException {
+        lexErrors.clear();
+        parseErrors.clear();
+
+        started(Phase.LEX);
+        SourceCharStream input = new SourceCharStream(file);
+        CeylonLexer lexer = new CeylonLexer(input);
+        //the token stream copies each token into its 
+        //arrays as soon as it is lexed
+        lexer.setReuseTokens(true);
+
+        CompactTokenStream tokens = new CompactTokenStream(lexer);
+        //the token stream lexes the whole file the
+        //first time it is asked for a token
+        tokens.LT(1);
+        tokenCount = tokens.size();
+        lineTable = input.getLineTable();
+        positionIndex = null;
+        completed(Phase.LEX);
+
+        started(Phase.PARSE);
+        CeylonParser parser;
+        if (profiler==null) {
+            parser = new CeylonParser(tokens);
+        }
+        else {
+            RecognizerSharedState state = new RecognizerSharedState();
+            TokenStream profiled = profiler.profile(tokens, state);
+            parser = new CeylonParser(profiled, state);
+        }
+        NodeTreeAdaptor adaptor = new NodeTreeAdaptor(
+                pkg.getModule().getSymbolTable());
+        parser.setTreeAdaptor(adaptor);
+        CeylonParser.compilationUnit_return r = parser.compilationUnit();
+        completed(Phase.PARSE);
+
+        //the errors are positioned by the line table
+        for (LexError le: lexer.getErrors()) {
+            lexErrors.add(le.getMessage(lexer, lineTable));
+        }
+        for (ParseError pe: parser.getErrors()) {
+            parseErrors.add(pe.getMessage(parser, lineTable));
+        }
+
+        started(Phase.BUILD);
+        compilationUnit = adaptor.getCompilationUnit(r.getTree());
+        completed(Phase.BUILD);
+        contentHash = hash(input.getContent());
+    }
+
+    /**
+     * Declare the unit, running the given passes over the
+     * tree in the same walk as the declaration pass, after
+     * it at each node, or, if they need a barrier, in a
+     * later walk.
+     */
+    public void declare(Pass... passes) {
+        started(Phase.DECLARE);
+        compilationUnit.clearErrors();
+        DeclarationVisitor dv = new DeclarationVisitor(pkg, unit);
+        Pass[] fused = new Pass[passes.length+1];
+        fused[0] = dv;
+        System.arraycopy(passes, 0, fused, 1, passes.length);
+        //the passes are walked iteratively, so that deeply
+        //nested expressions cannot overflow the stack
+        for (FusedVisitor fv: FusedVisitor.fuse(true, fused)) {
+            compilationUnit.visit(fv);
+        }
+        unit = dv.getCompilationUnit();
+        completed(Phase.DECLARE);
+    }
+
+    public void resolveTypes() {
+        started(Phase.TYPES);
+        if (isSplit()) {
+            //the imports of the unit are resolved first,
+            //since every declaration may refer to them
+            if (compilationUnit.getImportList()!=null) {
+                walk(compilationUnit.getImportList(), new TypeVisitor(unit));
+            }
+            new DeclarationTasks() {
+                @Override Pass createPass() {
+                    return new TypeVisitor(unit);
+                }
+            }.run(splitPool, compilationUnit.getDeclarations());
+        }
+        else {
+            walk(compilationUnit, new TypeVisitor(unit));
+        }
+        completed(Phase.TYPES);
+    }
+
+    public void analyseExpressions(final SubtypeChecker subtypeChecker) {
+        started(Phase.EXPRESSIONS);
+        if (isSplit()) {
+            //imports contain no expressions
+            new DeclarationTasks() {
+                @Override Pass createPass() {
+                    return new ExpressionVisitor(subtypeChecker);
+                }
+            }.run(splitPool, compilationUnit.getDeclarations());
+        }
+        else {
+            walk(compilationUnit, new ExpressionVisitor(subtypeChecker));
+        }
+        completed(Phase.EXPRESSIONS);
+    }
+
+    //the pass is walked iteratively, so that deeply 
+    //nested expressions cannot overflow the stack
+    private static void walk(Node node, Pass pass) {
+        FusedVisitor fv = new FusedVisitor(pass);
+        fv.setIterative(true);
+        node.visit(fv);
+    }
+
+    private boolean isSplit() {
+        return splitPool!=null && 
+                compilationUnit.getDeclarations().size()>=splitThreshold;
+    }
+
+    /**
+     * Freeze the model of the unit and of its module,
+     * once types have been resolved, so that it may be
+     * read concurrently by the expression phase.
+     */
+    public void freeze() {
+        if (unit!=null) {
+            unit.freeze();
+        }
+        pkg.getModule().freeze();
+    }
+
+    /**
+     * Thaw the model of the unit and of its module, so
+     * that the unit may be declared again.
+     */
+    public void thaw() {
+        if (unit!=null) {
+            unit.thaw();
+        }
+        pkg.getModule().thaw();
+    }
+
+    /**
+     * Remove the toplevel declarations of the unit from
+     * its package, and forget its references.
+     */
+    public void undeclare() {
+        if (unit!=null) {
+            unit.clearReferences();
+            //a single pass, since the package may be large
+            Set<Structure> removed = Collections.newSetFromMap(
+                    new IdentityHashMap<Structure, Boolean>());
+            for (Structure s: pkg.getMembers()) {
+                if (s.getUnit()==unit) {
+                    removed.add(s);
+                }
+            }
+            pkg.getMembers().removeAll(removed);
+        }
+    }
+
+    static byte[] hash(byte[] bytes) {
+        return hash(ByteBuffer.wrap(bytes));
+    }
+
+    static byte[] hash(ByteBuffer bytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(bytes);
+            return digest.digest();
+        }
+        catch (NoSuchAlgorithmException nsae) {
+            throw new RuntimeException(nsae);
+        }
+    }
+
+    private void started(Phase phase) {
+        completedPhase = phase.ordinal()==0 ? 
+                null : Phase.values()[phase.ordinal()-1];
+        if (listener!=null) {
+            startBytes = allocatedBytes();
+            startNanos = System.nanoTime();
+        }
+    }
+
+    private void completed(Phase phase) {
+        completedPhase = phase;
+        if (listener!=null) {
+            long nanos = System.nanoTime() - startNanos;
+            long bytes = startBytes<0 ? -1 : allocatedBytes() - startBytes;
+            listener.phaseCompleted(this, phase, nanos, bytes);
+        }
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        else {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PhasedUnit[" + file + "]";
+    }
+
+}
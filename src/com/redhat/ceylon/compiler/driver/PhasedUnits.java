@@ -0,0 +1,212 @@
+package com.redhat.ceylon.compiler.driver;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.redhat.ceylon.compiler.analyzer.SubtypeChecker;
+import com.redhat.ceylon.compiler.model.Package;
+
+/**
+ * Runs the phases of the pipeline over a list of
+ * compilation units on a work-stealing pool. Each
+ * phase is run for every unit before the next phase
+ * starts, so, for example, all declarations in all
+ * units are known before any type is resolved.
+ *
+ * Errors in the source of a unit are recorded by the
+ * unit and do not stop a phase. If a phase fails with
+ * an exception for some unit, the failure of the first
+ * such unit, in the order the units were added, is
+ * rethrown once the whole phase has completed.
+ *
+ * Once types have been resolved, the model may be
+ * frozen, so that it is only read by the expression
+ * phase.
+ *
+ * Units with many toplevel declarations may also be
+ * split, so that their declarations are checked 
+ * concurrently in the type and expression phases.
+ */
+public class PhasedUnits {
+
+    private final List<PhasedUnit> units = new ArrayList<PhasedUnit>();
+    private final ForkJoinPool pool;
+    private final SubtypeChecker subtypeChecker;
+    private PhaseListener listener;
+    private int splitThreshold;
+
+    public PhasedUnits(ForkJoinPool pool) {
+        this(pool, new SubtypeChecker());
+    }
+
+    public PhasedUnits(ForkJoinPool pool, SubtypeChecker subtypeChecker) {
+        this.pool = pool;
+        this.subtypeChecker = subtypeChecker;
+    }
+
+    public void add(PhasedUnit unit) {
+        unit.setPhaseListener(listener);
+        if (splitThreshold>0) {
+            unit.setSplitPool(pool, splitThreshold);
+        }
+        units.add(unit);
+    }
+
+    /**
+     * Split the units with at least the given number of
+     * toplevel declarations, including units already 
+     * added, checking their declarations concurrently 
+     * on the same pool as the units. Zero, the default, 
+     * never splits a unit.
+     */
+    public void setSplitThreshold(int threshold) {
+        this.splitThreshold = threshold;
+        for (PhasedUnit pu: units) {
+            pu.setSplitPool(threshold>0 ? pool : null, threshold);
+        }
+    }
+
+    /**
+     * Set the listener notified as each phase completes
+     * for each unit, including units already added.
+     */
+    public void setPhaseListener(PhaseListener listener) {
+        this.listener = listener;
+        for (PhasedUnit pu: units) {
+            pu.setPhaseListener(listener);
+        }
+    }
+
+    public List<PhasedUnit> getUnits() {
+        return units;
+    }
+
+    /**
+     * The subtype checker shared by all units during
+     * expression analysis.
+     */
+    public SubtypeChecker getSubtypeChecker() {
+        return subtypeChecker;
+    }
+
+    public void parse() throws Exception {
+        runPhase(eachUnit(), new Step() {
+            @Override void run(PhasedUnit pu) throws Exception {
+                pu.parse();
+            }
+        });
+    }
+
+    /**
+     * Units belonging to the same package are declared
+     * one after another, in order, since they all add
+     * members to the package. Distinct packages are
+     * declared concurrently.
+     */
+    public void declare() throws Exception {
+        runPhase(byPackage(), new Step() {
+            @Override void run(PhasedUnit pu) {
+                pu.declare();
+            }
+        });
+    }
+
+    public void resolveTypes() throws Exception {
+        runPhase(eachUnit(), new Step() {
+            @Override void run(PhasedUnit pu) {
+                pu.resolveTypes();
+            }
+        });
+    }
+
+    /**
+     * Freeze the model of the units and their modules,
+     * once types have been resolved, before expressions
+     * are analysed concurrently.
+     */
+    public void freeze() {
+        for (PhasedUnit pu: units) {
+            pu.freeze();
+        }
+    }
+
+    public void analyseExpressions() throws Exception {
+        runPhase(eachUnit(), new Step() {
+            @Override void run(PhasedUnit pu) {
+                pu.analyseExpressions(subtypeChecker);
+            }
+        });
+    }
+
+    private List<List<PhasedUnit>> eachUnit() {
+        List<List<PhasedUnit>> batches = new ArrayList<List<PhasedUnit>>();
+        for (PhasedUnit pu: units) {
+            List<PhasedUnit> batch = new ArrayList<PhasedUnit>(1);
+            batch.add(pu);
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private List<List<PhasedUnit>> byPackage() {
+        Map<Package, List<PhasedUnit>> batches = new LinkedHashMap<Package, List<PhasedUnit>>();
+        for (PhasedUnit pu: units) {
+            List<PhasedUnit> batch = batches.get(pu.getPackage());
+            if (batch==null) {
+                batch = new ArrayList<PhasedUnit>();
+                batches.put(pu.getPackage(), batch);
+            }
+            batch.add(pu);
+        }
+        return new ArrayList<List<PhasedUnit>>(batches.values());
+    }
+
+    private void runPhase(List<List<PhasedUnit>> batches, final Step step)
+            throws Exception {
+        final Map<PhasedUnit, Exception> failures =
+                new ConcurrentHashMap<PhasedUnit, Exception>();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final List<PhasedUnit> batch: batches) {
+            tasks.add(new Callable<Void>() {
+                @Override public Void call() {
+                    for (PhasedUnit pu: batch) {
+                        try {
+                            step.run(pu);
+                        }
+                        catch (Exception e) {
+                            failures.put(pu, e);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        for (Future<Void> f: pool.invokeAll(tasks)) {
+            try {
+                f.get();
+            }
+            catch (ExecutionException ee) {
+                //only Errors escape the task
+                throw (Error) ee.getCause();
+            }
+        }
+        for (PhasedUnit pu: units) {
+            Exception e = failures.get(pu);
+            if (e!=null) {
+                throw e;
+            }
+        }
+    }
+
+    private static abstract class Step {
+        abstract void run(PhasedUnit pu) throws Exception;
+    }
+
+}
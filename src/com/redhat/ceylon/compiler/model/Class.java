@@ -1,19 +1,19 @@
 package com.redhat.ceylon.compiler.model;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class Class extends ClassOrInterface {
 	
     Boolean isAbstract;
     Boolean formal;    
-	List<Typed> parameters = new ArrayList<Typed>();
+	FreezableList<Typed> parameters = new FreezableList<Typed>();
 	
 	public Boolean isFormal() {
 		return formal;
 	}
 
 	public void setFormal(Boolean formal) {
+		checkMutable();
 		this.formal = formal;
 	}
 
@@ -24,4 +24,16 @@ public class Class extends ClassOrInterface {
     public List<Typed> parameters() {
     	return parameters;
     }
+    
+	@Override
+	public void freeze() {
+		super.freeze();
+		parameters.freeze();
+	}
+	
+	@Override
+	public void thaw() {
+		super.thaw();
+		parameters.thaw();
+	}
 }
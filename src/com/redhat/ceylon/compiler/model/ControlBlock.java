@@ -1,15 +1,31 @@
 package com.redhat.ceylon.compiler.model;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class ControlBlock extends Structure implements Scope {
 
-	List<Structure> members = new ArrayList<Structure>();
+	MemberList members = new MemberList();
 
 	@Override
 	public List<Structure> getMembers() {
 		return members;
 	}
 
+	@Override
+	public Declaration getDirectMember(Symbol name) {
+		return members.getDeclaration(name);
+	}
+
+	@Override
+	public void freeze() {
+		super.freeze();
+		members.freeze();
+	}
+
+	@Override
+	public void thaw() {
+		super.thaw();
+		members.thaw();
+	}
+
 }
@@ -1,6 +1,5 @@
 package com.redhat.ceylon.compiler.model;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -13,14 +12,22 @@ import java.util.List;
  */
 public class Declaration extends Structure {
 	
-	String name;
+	Symbol name;
 	Boolean shared;
-	List<Annotation> annotations = new ArrayList<Annotation>();
+	FreezableList<Annotation> annotations = new FreezableList<Annotation>();
 	
 	public String getName() {
+		return name==null ? null : name.getName();
+	}
+	/**
+	 * The name of the declaration, interned in the
+	 * symbol table of its module.
+	 */
+	public Symbol getSymbol() {
 		return name;
 	}
-	public void setName(String name) {
+	public void setName(Symbol name) {
+		checkMutable();
 		this.name = name;
 	}
 	
@@ -28,6 +35,7 @@ public class Declaration extends Structure {
 		return shared;
 	}
 	public void setShared(Boolean shared) {
+		checkMutable();
 		this.shared = shared;
 	}
 	
@@ -35,6 +43,18 @@ public class Declaration extends Structure {
 		return annotations;
 	}
 	
+	@Override
+	public void freeze() {
+		super.freeze();
+		annotations.freeze();
+	}
+	
+	@Override
+	public void thaw() {
+		super.thaw();
+		annotations.thaw();
+	}
+	
 	@Override
 	public String toString() {
 		return getClass().getSimpleName() + 
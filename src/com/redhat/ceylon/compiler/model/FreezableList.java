@@ -0,0 +1,137 @@
+package com.redhat.ceylon.compiler.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * A list of elements of the model, backed by an array,
+ * which is frozen along with the model once the model
+ * is built. A frozen list has no spare capacity and
+ * may not be modified until it is thawed, but may be
+ * read by many threads without locking.
+ */
+public class FreezableList<E> extends AbstractList<E> implements RandomAccess {
+
+	private static final Object[] EMPTY = new Object[0];
+
+	private Object[] elements = EMPTY;
+	private int size;
+	private boolean frozen;
+
+	public FreezableList() {}
+
+	public FreezableList(Collection<? extends E> collection) {
+		elements = collection.toArray(new Object[collection.size()]);
+		size = elements.length;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public E get(int i) {
+		checkIndex(i);
+		return (E) elements[i];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void add(int i, E element) {
+		checkMutable();
+		if (i<0 || i>size) {
+			throw new IndexOutOfBoundsException("index: " + i + ", size: " + size);
+		}
+		if (size==elements.length) {
+			elements = Arrays.copyOf(elements, Math.max(4, size*2));
+		}
+		System.arraycopy(elements, i, elements, i+1, size-i);
+		elements[i] = element;
+		size++;
+		modCount++;
+	}
+
+	@Override
+	public E set(int i, E element) {
+		checkMutable();
+		E old = get(i);
+		elements[i] = element;
+		return old;
+	}
+
+	@Override
+	public E remove(int i) {
+		checkMutable();
+		E old = get(i);
+		System.arraycopy(elements, i+1, elements, i, size-i-1);
+		elements[--size] = null;
+		modCount++;
+		return old;
+	}
+
+	/**
+	 * Remove the elements contained in the collection,
+	 * in a single pass.
+	 */
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		checkMutable();
+		int j = 0;
+		for (int i=0; i<size; i++) {
+			if (!c.contains(elements[i])) {
+				elements[j++] = elements[i];
+			}
+		}
+		if (j==size) {
+			return false;
+		}
+		Arrays.fill(elements, j, size, null);
+		size = j;
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		checkMutable();
+		Arrays.fill(elements, 0, size, null);
+		size = 0;
+		modCount++;
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Freeze the list, trimming the array to its size.
+	 */
+	public void freeze() {
+		if (!frozen) {
+			if (elements.length!=size) {
+				elements = size==0 ? EMPTY : Arrays.copyOf(elements, size);
+			}
+			frozen = true;
+		}
+	}
+
+	public void thaw() {
+		frozen = false;
+	}
+
+	private void checkIndex(int i) {
+		if (i<0 || i>=size) {
+			throw new IndexOutOfBoundsException("index: " + i + ", size: " + size);
+		}
+	}
+
+	private void checkMutable() {
+		if (frozen) {
+			throw new UnsupportedOperationException("the model is frozen");
+		}
+	}
+
+}
@@ -1,6 +1,5 @@
 package com.redhat.ceylon.compiler.model;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -18,9 +17,9 @@ import java.util.List;
  */
 public class Functional extends Typed implements Scope {
 	
-	List<List<Parameter>> parameters = new ArrayList<List<Parameter>>();
+	FreezableList<List<Parameter>> parameters = new FreezableList<List<Parameter>>();
 	
-	List<Structure> members = new ArrayList<Structure>();
+	MemberList members = new MemberList();
 
 	public List<List<Parameter>> parameters() {
 		return parameters;
@@ -31,4 +30,23 @@ public class Functional extends Typed implements Scope {
 		return members;
 	}
 
+	@Override
+	public Declaration getDirectMember(Symbol name) {
+		return members.getDeclaration(name);
+	}
+
+	@Override
+	public void freeze() {
+		super.freeze();
+		parameters.freeze();
+		members.freeze();
+	}
+
+	@Override
+	public void thaw() {
+		super.thaw();
+		parameters.thaw();
+		members.thaw();
+	}
+
 }
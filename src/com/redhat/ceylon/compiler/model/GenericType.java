@@ -1,38 +1,67 @@
 package com.redhat.ceylon.compiler.model;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class GenericType extends Declaration implements Generic {
 	
 	Type extendedType;
-	List<Type> satisfiedTypes = new ArrayList<Type>();
-	List<Type> caseTypes = new ArrayList<Type>();
-	List<TypeParameter> typeParameters = new ArrayList<TypeParameter>();
+	FreezableList<Type> satisfiedTypes = new FreezableList<Type>();
+	FreezableList<Type> caseTypes = new FreezableList<Type>();
+	FreezableList<TypeParameter> typeParameters = new FreezableList<TypeParameter>();
+	ConcurrentMap<TypeFactory.TypeArguments, Type> producedTypes;
 	
 	public List<TypeParameter> getTypeParameters() {
 		return typeParameters;
 	}
 	public void setTypeParameters(List<TypeParameter> typeParameters) {
-		this.typeParameters = typeParameters;
+		checkMutable();
+		this.typeParameters = new FreezableList<TypeParameter>(typeParameters);
 	}
 	public Type getExtendedType() {
 		return extendedType;
 	}
 	public void setExtendedType(Type extendedType) {
+		checkMutable();
 		this.extendedType = extendedType;
 	}
 	public List<Type> getSatisfiedTypes() {
 		return satisfiedTypes;
 	}
 	public void setSatisfiedTypes(List<Type> satisfiedTypes) {
-		this.satisfiedTypes = satisfiedTypes;
+		checkMutable();
+		this.satisfiedTypes = new FreezableList<Type>(satisfiedTypes);
 	}
 	public List<Type> getCaseTypes() {
 		return caseTypes;
 	}
 	public void setCaseTypes(List<Type> caseTypes) {
-		this.caseTypes = caseTypes;
+		checkMutable();
+		this.caseTypes = new FreezableList<Type>(caseTypes);
+	}
+	
+	@Override
+	public void freeze() {
+		super.freeze();
+		satisfiedTypes.freeze();
+		caseTypes.freeze();
+		typeParameters.freeze();
+	}
+	
+	@Override
+	public void thaw() {
+		super.thaw();
+		satisfiedTypes.thaw();
+		caseTypes.thaw();
+		typeParameters.thaw();
+	}
+	
+	synchronized ConcurrentMap<TypeFactory.TypeArguments, Type> getProducedTypes() {
+		if (producedTypes==null) {
+			producedTypes = new ConcurrentHashMap<TypeFactory.TypeArguments, Type>();
+		}
+		return producedTypes;
 	}
 	
 }
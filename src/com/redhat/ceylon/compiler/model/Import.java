@@ -1,7 +1,7 @@
 package com.redhat.ceylon.compiler.model;
 
 public class Import {
-	String alias;
+	Symbol alias;
 	Declaration declaration;
 	Boolean implicit;
 	
@@ -12,11 +12,11 @@ public class Import {
 		this.declaration = declaration;
 	}
 	
-	public String getAlias() {
+	public Symbol getAlias() {
 		return alias;
 	}
 	
-	public void setAlias(String alias) {
+	public void setAlias(Symbol alias) {
 		this.alias = alias;
 	}
 	
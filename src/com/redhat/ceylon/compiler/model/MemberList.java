@@ -0,0 +1,166 @@
+package com.redhat.ceylon.compiler.model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * The members of a scope, in the order they were
+ * added, with an index of the declarations by name
+ * which is kept in sync as members are added and
+ * removed. When several declarations have the same
+ * name, the index returns the first of them. Names
+ * are symbols, so the index never compares their
+ * characters. The index holds, for each name, the
+ * declarations with that name in the order of the
+ * list, so that adding a member at the end, or
+ * removing a member, updates only the entry for its
+ * name. Note that a declaration must be named before
+ * it is added to the list.
+ */
+public class MemberList extends AbstractList<Structure> implements RandomAccess {
+
+	private final FreezableList<Structure> members = new FreezableList<Structure>();
+	private final Map<Symbol, List<Declaration>> index = new HashMap<Symbol, List<Declaration>>();
+
+	/**
+	 * The first declaration with the given name, or
+	 * null if there is no such member.
+	 */
+	public Declaration getDeclaration(Symbol name) {
+		List<Declaration> named = index.get(name);
+		return named==null ? null : named.get(0);
+	}
+
+	@Override
+	public Structure get(int i) {
+		return members.get(i);
+	}
+
+	@Override
+	public int size() {
+		return members.size();
+	}
+
+	@Override
+	public void add(int i, Structure member) {
+		members.add(i, member);
+		indexMember(i, member);
+	}
+
+	@Override
+	public Structure set(int i, Structure member) {
+		Structure old = members.set(i, member);
+		unindexMember(old);
+		indexMember(i, member);
+		return old;
+	}
+
+	@Override
+	public Structure remove(int i) {
+		Structure old = members.remove(i);
+		unindexMember(old);
+		return old;
+	}
+
+	/**
+	 * Remove the given members in a single pass over
+	 * the list. Members are compared by identity, so
+	 * a set of them is best passed.
+	 */
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		boolean changed = members.removeAll(c);
+		if (changed) {
+			for (Object o: c) {
+				if (o instanceof Structure) {
+					unindexMember((Structure) o);
+				}
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public void clear() {
+		members.clear();
+		index.clear();
+	}
+
+	/**
+	 * Freeze the list, and its members. The index is
+	 * not modified while the list is frozen, so it may
+	 * be read concurrently.
+	 */
+	public void freeze() {
+		if (!members.isFrozen()) {
+			members.freeze();
+			for (int i=0; i<members.size(); i++) {
+				members.get(i).freeze();
+			}
+		}
+	}
+
+	public void thaw() {
+		if (members.isFrozen()) {
+			members.thaw();
+			for (int i=0; i<members.size(); i++) {
+				members.get(i).thaw();
+			}
+		}
+	}
+
+	//index a member which was added to the list at the
+	//given position, after the members with the same
+	//name which precede it
+	private void indexMember(int i, Structure member) {
+		Symbol name = getName(member);
+		if (name!=null) {
+			List<Declaration> named = index.get(name);
+			if (named==null) {
+				named = new ArrayList<Declaration>(1);
+				index.put(name, named);
+			}
+			if (i==members.size()-1) {
+				named.add((Declaration) member);
+			}
+			else {
+				int before = 0;
+				for (int j=0; j<i; j++) {
+					if (getName(members.get(j))==name) {
+						before++;
+					}
+				}
+				named.add(before, (Declaration) member);
+			}
+		}
+	}
+
+	private void unindexMember(Structure member) {
+		Symbol name = getName(member);
+		if (name!=null) {
+			List<Declaration> named = index.get(name);
+			if (named!=null) {
+				for (int j=0; j<named.size(); j++) {
+					if (named.get(j)==member) {
+						named.remove(j);
+						break;
+					}
+				}
+				if (named.isEmpty()) {
+					index.remove(name);
+				}
+			}
+		}
+	}
+
+	private static Symbol getName(Structure member) {
+		return member instanceof Declaration ?
+				((Declaration) member).getSymbol() : null;
+	}
+
+}
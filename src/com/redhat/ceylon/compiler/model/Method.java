@@ -18,6 +18,7 @@ public class Method extends Functional implements Generic {
 	}
 	
 	public void setFormal(Boolean formal) {
+		checkMutable();
 		this.formal = formal;
 	}
 	
@@ -26,6 +27,7 @@ public class Method extends Functional implements Generic {
 	}
 	
 	public void setType(Type type) {
+		checkMutable();
 		this.type = type;
 	}
 	
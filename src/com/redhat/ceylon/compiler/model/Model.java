@@ -2,15 +2,50 @@ package com.redhat.ceylon.compiler.model;
 
 import com.redhat.ceylon.compiler.tree.Node;
 
+/**
+ * An element of the model. The model is built by the
+ * declaration and type phases, then frozen, so that
+ * the expression phase may read it from many threads
+ * without locking. An attempt to modify a frozen
+ * element fails, until the model is thawed to be
+ * declared again.
+ */
 public class Model {
 	
 	Node treeNode;
+	boolean frozen;
 	
 	public Node getTreeNode() {
 		return treeNode;
 	}
 	public void setTreeNode(Node treeNode) {
+		checkMutable();
 		this.treeNode = treeNode;
 	}
 	
+	public boolean isFrozen() {
+		return frozen;
+	}
+	
+	/**
+	 * Freeze this element, and the elements it
+	 * contains.
+	 */
+	public void freeze() {
+		frozen = true;
+	}
+	
+	/**
+	 * Thaw this element, and the elements it contains.
+	 */
+	public void thaw() {
+		frozen = false;
+	}
+	
+	void checkMutable() {
+		if (frozen) {
+			throw new UnsupportedOperationException("the model is frozen");
+		}
+	}
+	
 }
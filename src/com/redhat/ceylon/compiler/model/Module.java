@@ -1,22 +1,58 @@
 package com.redhat.ceylon.compiler.model;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class Module {
 	
 	List<String> name;
-	List<Package> packages = new ArrayList<Package>();
-	List<Module> dependencies = new ArrayList<Module>();
+	ModuleList<Package> packages = new ModuleList<Package>();
+	ModuleList<Module> dependencies = new ModuleList<Module>();
+	List<Module> dependents = new ArrayList<Module>();
+	volatile PackageIndex packageIndex;
+	boolean invalidating;
+	boolean frozen;
+	SymbolTable symbolTable = new SymbolTable();
+	//the produced types of generic types which could
+	//not be resolved, held by the TypeFactory
+	final ConcurrentMap<TypeFactory.TypeArguments, Type> unresolvedTypes = 
+			new ConcurrentHashMap<TypeFactory.TypeArguments, Type>();
 	
 	public List<String> getName() {
 		return name;
 	}
 	
 	public void setName(List<String> name) {
+		checkMutable();
 		this.name = name;
 	}
 	
+	/**
+	 * The table of the names of everything compiled
+	 * with this module. Modules which depend upon one
+	 * another must share the same table, since names
+	 * are resolved by comparing their symbols.
+	 */
+	public SymbolTable getSymbolTable() {
+		return symbolTable;
+	}
+	
+	public void setSymbolTable(SymbolTable symbolTable) {
+		checkMutable();
+		this.symbolTable = symbolTable;
+		invalidatePackageIndex();
+	}
+	
+	/**
+	 * The packages of this module. Note that a package
+	 * must be named before it is added.
+	 */
 	public List<Package> getPackages() {
 		return packages;
 	}
@@ -34,9 +70,170 @@ public class Module {
 		return list;
 	}
 	
+	/**
+	 * The index of the packages of this module and of
+	 * all the modules it depends upon, directly or 
+	 * indirectly. When several packages have the same 
+	 * name, packages of this module come first, then
+	 * those of its dependencies, breadth first. The 
+	 * index is built on demand, and is discarded when 
+	 * a package or dependency is added to this module
+	 * or to one of its dependencies.
+	 */
+	public PackageIndex getPackageIndex() {
+		PackageIndex index = packageIndex;
+		if (index==null) {
+			index = new PackageIndex(symbolTable);
+			Set<Module> visited = new HashSet<Module>();
+			LinkedList<Module> queue = new LinkedList<Module>();
+			queue.add(this);
+			while (!queue.isEmpty()) {
+				Module m = queue.removeFirst();
+				if (visited.add(m)) {
+					for (Package p: m.getPackages()) {
+						index.add(p);
+					}
+					queue.addAll(m.getDependencies());
+				}
+			}
+			packageIndex = index;
+		}
+		return index;
+	}
+	
+	/**
+	 * The package with the given qualified name, in
+	 * this module or one of its dependencies, or null
+	 * if there is no such package.
+	 */
+	public Package getPackage(List<String> name) {
+		PackageIndex index = getPackageIndex();
+		for (int i=0; i<name.size() && index!=null; i++) {
+			Symbol segment = symbolTable.get(name.get(i));
+			index = segment==null ? null : index.getChild(segment);
+		}
+		return index==null ? null : index.getPackage();
+	}
+	
+	public boolean isFrozen() {
+		return frozen;
+	}
+	
+	void checkMutable() {
+		if (frozen) {
+			throw new UnsupportedOperationException("the model is frozen");
+		}
+	}
+	
+	/**
+	 * Freeze the packages and dependencies of this
+	 * module, and the declarations of its packages, 
+	 * once they have been declared and their types
+	 * resolved. The frozen model may be read by many
+	 * threads without locking, and an attempt to modify
+	 * it fails until it is thawed. The package index is
+	 * built first, so that readers never build it.
+	 */
+	public void freeze() {
+		if (!frozen) {
+			getPackageIndex();
+			packages.list.freeze();
+			dependencies.list.freeze();
+			for (Package p: packages) {
+				p.freeze();
+			}
+			frozen = true;
+		}
+	}
+	
+	/**
+	 * Thaw the module, so that its packages may be
+	 * declared again, forgetting the produced types of
+	 * generic types which could not be resolved.
+	 */
+	public void thaw() {
+		if (frozen) {
+			unresolvedTypes.clear();
+			packages.list.thaw();
+			dependencies.list.thaw();
+			for (Package p: packages) {
+				p.thaw();
+			}
+			frozen = false;
+		}
+	}
+	
+	void invalidatePackageIndex() {
+		if (!invalidating) {
+			invalidating = true;
+			packageIndex = null;
+			for (Module m: dependents) {
+				m.invalidatePackageIndex();
+			}
+			invalidating = false;
+		}
+	}
+	
 	@Override
 	public String toString() {
 		return "Module[" + name + "]";
 	}
 	
+	/**
+	 * A list which discards the package index of the
+	 * module when it changes, and keeps track of the
+	 * dependents of each module.
+	 */
+	class ModuleList<E> extends AbstractList<E> {
+		
+		private final FreezableList<E> list = new FreezableList<E>();
+		
+		@Override
+		public E get(int i) {
+			return list.get(i);
+		}
+		
+		@Override
+		public int size() {
+			return list.size();
+		}
+		
+		@Override
+		public void add(int i, E e) {
+			list.add(i, e);
+			added(e);
+			invalidatePackageIndex();
+		}
+		
+		@Override
+		public E set(int i, E e) {
+			E old = list.set(i, e);
+			removed(old);
+			added(e);
+			invalidatePackageIndex();
+			return old;
+		}
+		
+		@Override
+		public E remove(int i) {
+			E old = list.remove(i);
+			removed(old);
+			invalidatePackageIndex();
+			return old;
+		}
+		
+		private void added(E e) {
+			if (e instanceof Module) {
+				((Module) e).dependents.add(Module.this);
+			}
+		}
+		
+		private void removed(E e) {
+			if (e instanceof Module) {
+				((Module) e).dependents.remove(Module.this);
+			}
+		}
+		
+	}
+	
 }
@@ -1,18 +1,20 @@
 package com.redhat.ceylon.compiler.model;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class Package implements Scope {
 	List<String> name;
 	Module module;
-	List<Structure> members = new ArrayList<Structure>();
+	MemberList members = new MemberList();
+	References references = new References();
+	boolean frozen;
 
 	public Module getModule() {
 		return module;
 	}
 
 	public void setModule(Module module) {
+		checkMutable();
 		this.module = module;
 	}
 
@@ -21,6 +23,7 @@ public class Package implements Scope {
 	}
 
 	public void setName(List<String> name) {
+		checkMutable();
 		this.name = name;
 	}
 
@@ -29,11 +32,48 @@ public class Package implements Scope {
 		return members;
 	}
 
+	@Override
+	public Declaration getDirectMember(Symbol name) {
+		return members.getDeclaration(name);
+	}
+
+	/**
+	 * The references to the declarations of the
+	 * package from the units which have been analysed.
+	 */
+	public References getReferences() {
+		return references;
+	}
+
 	@Override
 	public Scope getContainer() {
 		return null;
 	}
 	
+	/**
+	 * Freeze the declarations of the package, once
+	 * they have been declared and their types resolved.
+	 */
+	public void freeze() {
+		members.freeze();
+		frozen = true;
+	}
+	
+	public void thaw() {
+		members.thaw();
+		frozen = false;
+	}
+	
+	public boolean isFrozen() {
+		return frozen;
+	}
+	
+	void checkMutable() {
+		if (frozen) {
+			throw new UnsupportedOperationException("the model is frozen");
+		}
+	}
+	
 	@Override
 	public String toString() {
 		return "Package[" + name + "]";
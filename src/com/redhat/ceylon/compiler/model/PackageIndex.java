@@ -0,0 +1,56 @@
+package com.redhat.ceylon.compiler.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A node of the index of the packages visible in a
+ * module, keyed by the segments of the qualified
+ * package name, so that a package may be found by
+ * walking the segments of an import path. Segments
+ * are interned in the symbol table of the module.
+ */
+public class PackageIndex {
+	
+	final SymbolTable symbolTable;
+	final Map<Symbol, PackageIndex> children = new HashMap<Symbol, PackageIndex>();
+	Package pkg;
+	
+	PackageIndex(SymbolTable symbolTable) {
+		this.symbolTable = symbolTable;
+	}
+	
+	/**
+	 * The node for the package names which extend the
+	 * name of this node with the given segment, or
+	 * null if there is no such package.
+	 */
+	public PackageIndex getChild(Symbol segment) {
+		return children.get(segment);
+	}
+	
+	/**
+	 * The package with the name of this node, or null
+	 * if this node is only a prefix of other packages.
+	 */
+	public Package getPackage() {
+		return pkg;
+	}
+	
+	void add(Package p) {
+		PackageIndex node = this;
+		for (String name: p.getName()) {
+			Symbol segment = symbolTable.intern(name);
+			PackageIndex child = node.children.get(segment);
+			if (child==null) {
+				child = new PackageIndex(symbolTable);
+				node.children.put(segment, child);
+			}
+			node = child;
+		}
+		if (node.pkg==null) {
+			node.pkg = p;
+		}
+	}
+	
+}
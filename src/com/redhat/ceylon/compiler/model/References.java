@@ -0,0 +1,103 @@
+package com.redhat.ceylon.compiler.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.redhat.ceylon.compiler.tree.Node;
+
+/**
+ * The references to the declarations of a package,
+ * recorded as the analyzer resolves them, by the
+ * unit in which they occur, so that the usages of a
+ * declaration are found without analysing the units
+ * again, and the references of a unit are forgotten
+ * when it is declared again. References from several
+ * units, or from several declarations of one unit,
+ * may be recorded concurrently.
+ */
+public class References {
+
+	private final ConcurrentMap<Declaration, ConcurrentMap<Unit, List<Node>>> references =
+			new ConcurrentHashMap<Declaration, ConcurrentMap<Unit, List<Node>>>();
+
+	/**
+	 * Record a reference to the declaration at the given
+	 * node of the unit.
+	 */
+	void add(Declaration d, Unit u, Node node) {
+		ConcurrentMap<Unit, List<Node>> byUnit = references.get(d);
+		if (byUnit==null) {
+			ConcurrentMap<Unit, List<Node>> created =
+					new ConcurrentHashMap<Unit, List<Node>>();
+			byUnit = references.putIfAbsent(d, created);
+			if (byUnit==null) {
+				byUnit = created;
+			}
+		}
+		List<Node> nodes = byUnit.get(u);
+		if (nodes==null) {
+			List<Node> created = Collections.synchronizedList(new ArrayList<Node>());
+			nodes = byUnit.putIfAbsent(u, created);
+			if (nodes==null) {
+				nodes = created;
+			}
+		}
+		nodes.add(node);
+	}
+
+	/**
+	 * Forget the references to the declaration from
+	 * the unit. References are only forgotten while the
+	 * unit is declared again, never while references
+	 * are being recorded.
+	 */
+	void remove(Declaration d, Unit u) {
+		ConcurrentMap<Unit, List<Node>> byUnit = references.get(d);
+		if (byUnit!=null) {
+			byUnit.remove(u);
+			if (byUnit.isEmpty()) {
+				references.remove(d, byUnit);
+			}
+		}
+	}
+
+	/**
+	 * The nodes which refer to the declaration, as of
+	 * the last time each unit was analysed.
+	 */
+	public List<Node> getReferences(Declaration d) {
+		List<Node> result = new ArrayList<Node>();
+		ConcurrentMap<Unit, List<Node>> byUnit = references.get(d);
+		if (byUnit!=null) {
+			for (List<Node> nodes: byUnit.values()) {
+				synchronized (nodes) {
+					result.addAll(nodes);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The units which refer to the declaration.
+	 */
+	public Set<Unit> getReferencingUnits(Declaration d) {
+		ConcurrentMap<Unit, List<Node>> byUnit = references.get(d);
+		if (byUnit==null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(byUnit.keySet());
+	}
+
+	/**
+	 * The number of declarations with references.
+	 */
+	public int size() {
+		return references.size();
+	}
+
+}
@@ -12,5 +12,11 @@ import java.util.List;
  */
 public interface Scope {
 	List<Structure> getMembers();
+	/**
+	 * The first member declaration with the given
+	 * name, looked up directly inside this scope, or
+	 * null if there is no such member.
+	 */
+	Declaration getDirectMember(Symbol name);
 	Scope getContainer();
 }
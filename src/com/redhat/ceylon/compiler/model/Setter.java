@@ -1,6 +1,5 @@
 package com.redhat.ceylon.compiler.model;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -10,7 +9,7 @@ import java.util.List;
  *
  */
 public class Setter extends Declaration implements Scope {
-	List<Structure> members = new ArrayList<Structure>();
+	MemberList members = new MemberList();
 	Getter getter;
 
 	@Override
@@ -18,11 +17,29 @@ public class Setter extends Declaration implements Scope {
 		return members;
 	}
 
+	@Override
+	public Declaration getDirectMember(Symbol name) {
+		return members.getDeclaration(name);
+	}
+
+	@Override
+	public void freeze() {
+		super.freeze();
+		members.freeze();
+	}
+
+	@Override
+	public void thaw() {
+		super.thaw();
+		members.thaw();
+	}
+
 	public Getter getGetter() {
 		return getter;
 	}
 	
 	public void setGetter(Getter getter) {
+		checkMutable();
 		this.getter = getter;
 	}
 }
@@ -16,6 +16,7 @@ public class SimpleValue extends Typed {
 	}
 	
 	public void setFormal(Boolean formal) {
+		checkMutable();
 		this.formal = formal;
 	}
 	
@@ -23,6 +24,7 @@ public class SimpleValue extends Typed {
 		return variable;
 	}
 	public void setVariable(Boolean variable) {
+		checkMutable();
 		this.variable = variable;
 	}
 }
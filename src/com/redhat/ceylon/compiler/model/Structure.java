@@ -9,6 +9,7 @@ public class Structure extends Model {
 		return unit;
 	}
 	public void setUnit(Unit compilationUnit) {
+		checkMutable();
 		this.unit = compilationUnit;
 	}
 
@@ -17,6 +18,7 @@ public class Structure extends Model {
 	}
 	
 	public void setContainer(Scope scope) {
+		checkMutable();
 		this.container = scope;
 	}
 	
@@ -0,0 +1,45 @@
+package com.redhat.ceylon.compiler.model;
+
+/**
+ * The canonical representation of a name in a symbol
+ * table. A table holds one symbol per distinct name,
+ * so two names of the same table are equal exactly
+ * when they are the same symbol, and symbols are
+ * compared by identity. The id of a symbol is unique
+ * within its table, and is its hash code, so a map
+ * keyed by symbols never compares their characters.
+ */
+public final class Symbol {
+
+	private final String name;
+	private final int id;
+
+	Symbol(String name, int id) {
+		this.name = name;
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * A small number identifying the symbol in its
+	 * table, counting from zero in the order the names
+	 * were interned.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	@Override
+	public int hashCode() {
+		return id;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
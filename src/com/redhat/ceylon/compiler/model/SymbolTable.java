@@ -0,0 +1,55 @@
+package com.redhat.ceylon.compiler.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interns the names of a compilation: the identifiers
+ * of its trees, as they are built, and the names of
+ * its declarations and imports, so that names are
+ * resolved by comparing symbols rather than strings.
+ * Everything compiled together must share one table,
+ * which is held by the module. This class is thread
+ * safe.
+ */
+public class SymbolTable {
+
+	private final ConcurrentMap<String, Symbol> symbols =
+			new ConcurrentHashMap<String, Symbol>();
+	private final AtomicInteger ids = new AtomicInteger();
+
+	/**
+	 * The symbol for the given name, which is added to
+	 * the table if it is not already there.
+	 */
+	public Symbol intern(String name) {
+		Symbol symbol = symbols.get(name);
+		if (symbol==null) {
+			Symbol newSymbol = new Symbol(name, ids.getAndIncrement());
+			symbol = symbols.putIfAbsent(name, newSymbol);
+			if (symbol==null) {
+				symbol = newSymbol;
+			}
+		}
+		return symbol;
+	}
+
+	/**
+	 * The symbol for the given name, or null if the
+	 * name has never been interned, in which case
+	 * nothing can be declared with that name.
+	 */
+	public Symbol get(String name) {
+		return symbols.get(name);
+	}
+
+	/**
+	 * The number of ids handed out, which is at least
+	 * the number of symbols.
+	 */
+	public int size() {
+		return ids.get();
+	}
+
+}
@@ -1,19 +1,32 @@
 package com.redhat.ceylon.compiler.model;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+/**
+ * A produced type: a generic type together with its
+ * type arguments. Produced types are immutable and
+ * canonical, and are obtained from the TypeFactory,
+ * so two types are the same type if and only if they
+ * are the same instance. Since a produced type is 
+ * shared by every node of that type, it is never 
+ * given a tree node.
+ */
 public class Type extends Model {
 	
-	List<Type> typeArguments = new ArrayList<Type>();
-	GenericType genericType;
+	final List<Type> typeArguments;
+	final GenericType genericType;
 	
-	public GenericType getGenericType() {
-		return genericType;
+	Type(GenericType genericType, Type[] typeArguments) {
+		this.genericType = genericType;
+		this.typeArguments = typeArguments.length==0 ? 
+				Collections.<Type>emptyList() :
+				Collections.unmodifiableList(Arrays.asList(typeArguments));
 	}
 	
-	public void setGenericType(GenericType type) {
-		this.genericType = type;
+	public GenericType getGenericType() {
+		return genericType;
 	}
 	
 	public List<Type> getTypeArguments() {
@@ -26,11 +39,14 @@ public class Type extends Model {
 	}
 
 	public String getProducedTypeName() {
-		String producedTypeName = genericType.getName();
+		//the error type, of a node whose type could not
+		//be determined, has no generic type
+		String producedTypeName = genericType==null ? 
+				"?" : genericType.getName();
 		if (!typeArguments.isEmpty()) {
 			producedTypeName+="<";
 			for (Type t: typeArguments) {
-				producedTypeName+=t.getProducedTypeName();
+				producedTypeName+= t==null ? "?" : t.getProducedTypeName();
 			}
 			producedTypeName+=">";
 		}
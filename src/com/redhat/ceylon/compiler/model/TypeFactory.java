@@ -0,0 +1,132 @@
+package com.redhat.ceylon.compiler.model;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Produces the canonical instance of the type with a 
+ * given generic type and type arguments. The table of
+ * produced types of a generic type is held by the 
+ * generic type itself, so it lives exactly as long as
+ * the declaration does. The produced types of a generic
+ * type which could not be resolved are held by the
+ * module, and are forgotten when the module is thawed
+ * to be declared again, since their type arguments may
+ * refer to declarations which are about to be replaced.
+ * This class is thread safe.
+ */
+public final class TypeFactory {
+	
+	private static final Type[] NO_TYPE_ARGUMENTS = new Type[0];
+	
+	/**
+	 * The error type, with no generic type and no type
+	 * arguments, which refers to nothing, and so may be
+	 * shared by every module.
+	 */
+	private static final Type ERROR = new Type(null, NO_TYPE_ARGUMENTS);
+	
+	private TypeFactory() {}
+	
+	/**
+	 * The type with the given generic type and no type 
+	 * arguments.
+	 */
+	public static Type getType(GenericType genericType) {
+		return getType(genericType, NO_TYPE_ARGUMENTS);
+	}
+	
+	/**
+	 * The type with the given generic type and type
+	 * arguments. The type arguments must themselves 
+	 * be produced by this factory.
+	 */
+	public static Type getType(GenericType genericType, List<Type> typeArguments) {
+		return getType(genericType, typeArguments, null);
+	}
+	
+	/**
+	 * The type with the given generic type, which may
+	 * be null if it could not be resolved, and type
+	 * arguments, produced in the given module.
+	 */
+	public static Type getType(GenericType genericType, List<Type> typeArguments, 
+			Module module) {
+		return getType(genericType, typeArguments.toArray(new Type[typeArguments.size()]), 
+				module);
+	}
+	
+	private static Type getType(GenericType genericType, Type[] typeArguments) {
+		return getType(genericType, typeArguments, null);
+	}
+	
+	private static Type getType(GenericType genericType, Type[] typeArguments, 
+			Module module) {
+		ConcurrentMap<TypeArguments, Type> producedTypes;
+		if (genericType!=null) {
+			producedTypes = genericType.getProducedTypes();
+		}
+		else if (typeArguments.length==0) {
+			return ERROR;
+		}
+		else if (module!=null) {
+			producedTypes = module.unresolvedTypes;
+		}
+		else {
+			throw new RuntimeException("an unresolved type with type arguments must be produced in a module");
+		}
+		TypeArguments key = new TypeArguments(typeArguments);
+		Type type = producedTypes.get(key);
+		if (type==null) {
+			Type newType = new Type(genericType, typeArguments);
+			type = producedTypes.putIfAbsent(key, newType);
+			if (type==null) {
+				type = newType;
+			}
+		}
+		return type;
+	}
+	
+	/**
+	 * A list of canonical type arguments, compared by
+	 * identity.
+	 */
+	static final class TypeArguments {
+		
+		private final Type[] types;
+		private final int hash;
+		
+		TypeArguments(Type[] types) {
+			this.types = types;
+			int h = 1;
+			for (Type t: types) {
+				h = 31*h + System.identityHashCode(t);
+			}
+			hash = h;
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TypeArguments)) {
+				return false;
+			}
+			Type[] others = ((TypeArguments) obj).types;
+			if (others.length!=types.length) {
+				return false;
+			}
+			for (int i=0; i<types.length; i++) {
+				if (others[i]!=types[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+	}
+	
+}
@@ -9,6 +9,7 @@ public class TypeParameter extends GenericType {
 		return covariant;
 	}
 	public void setCovariant(Boolean covariant) {
+		checkMutable();
 		this.covariant = covariant;
 	}
 	
@@ -16,6 +17,7 @@ public class TypeParameter extends GenericType {
 		return contravariant;
 	}
 	public void setContravariant(Boolean contravariant) {
+		checkMutable();
 		this.contravariant = contravariant;
 	}
 	
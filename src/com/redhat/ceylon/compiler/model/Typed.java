@@ -16,6 +16,7 @@ public class Typed extends Declaration {
 	}
 	
 	public void setType(Type type) {
+		checkMutable();
 		this.type = type;
 	}
 
@@ -1,15 +1,155 @@
 package com.redhat.ceylon.compiler.model;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.redhat.ceylon.compiler.tree.Node;
 
 public class Unit extends Model {
 	
-	List<Import> imports = new ArrayList<Import>();
+	FreezableList<Import> imports = new FreezableList<Import>();
+	Map<Symbol, Import> importsByAlias = new HashMap<Symbol, Import>();
+	Map<String, Declaration> languageDeclarations = 
+			Collections.synchronizedMap(new HashMap<String, Declaration>());
+	Set<Unit> dependencies = 
+			Collections.newSetFromMap(new ConcurrentHashMap<Unit, Boolean>());
+	//the names the unit looked up among the toplevel
+	//declarations of packages
+	Set<Symbol> names = 
+			Collections.newSetFromMap(new ConcurrentHashMap<Symbol, Boolean>());
+	//the declarations referred to by the unit, and the
+	//references of the packages which record them
+	ConcurrentMap<Declaration, References> referenced = 
+			new ConcurrentHashMap<Declaration, References>();
 	Package pkg;
 	
 	public List<Import> getImports() {
-		return imports;
+		return Collections.unmodifiableList(imports);
+	}
+	
+	/**
+	 * Add an import to the unit. If several imports
+	 * have the same alias, the first one hides the
+	 * others.
+	 */
+	public void addImport(Import i) {
+		imports.add(i);
+		if (!importsByAlias.containsKey(i.getAlias())) {
+			importsByAlias.put(i.getAlias(), i);
+		}
+	}
+	
+	/**
+	 * The import with the given alias, or null if
+	 * there is no such import.
+	 */
+	public Import getImport(Symbol alias) {
+		return importsByAlias.get(alias);
+	}
+	
+	/**
+	 * A cache of the declarations of ceylon.language
+	 * already resolved for this unit, by name. Names 
+	 * which could not be resolved map to null. The
+	 * declarations of the unit may be checked
+	 * concurrently, so the cache is synchronized.
+	 */
+	public Map<String, Declaration> getLanguageDeclarations() {
+		return languageDeclarations;
+	}
+	
+	/**
+	 * The other units containing declarations which
+	 * this unit refers to, directly or through the type
+	 * of a member, as recorded when they are resolved,
+	 * possibly concurrently.
+	 */
+	public Set<Unit> getDependencies() {
+		return Collections.unmodifiableSet(dependencies);
+	}
+	
+	public void addDependency(Unit unit) {
+		if (unit!=null && unit!=this) {
+			dependencies.add(unit);
+		}
+	}
+	
+	/**
+	 * The names which this unit looked up among the
+	 * toplevel declarations of packages, whether or not
+	 * they resolved, as recorded when they are looked
+	 * up, possibly concurrently. The unit must be
+	 * analysed again when a package gains or loses a
+	 * declaration with one of these names, since its
+	 * dependencies only record the names which resolved.
+	 */
+	public Set<Symbol> getNameDependencies() {
+		return Collections.unmodifiableSet(names);
+	}
+	
+	public void addNameDependency(Symbol name) {
+		names.add(name);
+	}
+	
+	/**
+	 * Record a reference from a node of this unit to a
+	 * declaration, in the references of the package of
+	 * the declaration.
+	 */
+	public void addReference(Declaration d, Node node) {
+		Unit u = d.getUnit();
+		if (u!=null && u.getPackage()!=null) {
+			References references = u.getPackage().getReferences();
+			referenced.put(d, references);
+			references.add(d, this, node);
+		}
+	}
+	
+	/**
+	 * Forget the references from this unit.
+	 */
+	public void clearReferences() {
+		for (Map.Entry<Declaration, References> e: referenced.entrySet()) {
+			e.getValue().remove(e.getKey(), this);
+		}
+		referenced.clear();
+	}
+	
+	/**
+	 * Freeze the imports of the unit, once they have
+	 * been resolved. The cached declarations, the 
+	 * dependencies and the references of the unit are
+	 * still recorded by the expression phase.
+	 */
+	@Override
+	public void freeze() {
+		super.freeze();
+		imports.freeze();
+	}
+	
+	@Override
+	public void thaw() {
+		super.thaw();
+		imports.thaw();
+	}
+	
+	/**
+	 * Forget the imports, cached declarations,
+	 * dependencies and references of the unit, so that
+	 * it may be declared again.
+	 */
+	public void reset() {
+		imports.clear();
+		importsByAlias.clear();
+		languageDeclarations.clear();
+		dependencies.clear();
+		names.clear();
+		clearReferences();
 	}
 	
 	public Package getPackage() {
@@ -17,6 +157,7 @@ public class Unit extends Model {
 	}
 	
 	public void setPackage(Package p) {
+		checkMutable();
 		pkg = p;
 	}
 	
@@ -0,0 +1,299 @@
+package com.redhat.ceylon.compiler.parser;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.antlr.runtime.CharStream;
+import org.antlr.runtime.Lexer;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenSource;
+import org.antlr.runtime.TokenStream;
+
+/**
+ * A token stream which keeps the tokens of a file in
+ * arrays of their type, start and stop indexes in the
+ * source, line and position in the line, rather than
+ * as a CommonToken each. A token is only created when
+ * the parser asks for it, as a source token over the
+ * source of the lexer, and only the tokens it matches
+ * outlive the parse, in the tree. The parser looks
+ * ahead by type, without creating tokens.
+ *
+ * The text of a token is kept only if the lexer set it
+ * explicitly, and the channel only if it is not the
+ * channel of the stream. Otherwise the stream behaves
+ * as a CommonTokenStream: it lexes the whole file the
+ * first time it is asked for a token, and skips the
+ * tokens on other channels.
+ */
+public class CompactTokenStream implements TokenStream {
+
+	private final Lexer lexer;
+	private final CharStream input;
+	private final int channel;
+
+	private int n;
+	private int[] types;
+	private int[] starts;
+	private int[] stops;
+	private int[] lines;
+	private int[] positions;
+	private final Map<Integer, Integer> channels = new HashMap<Integer, Integer>();
+	private final Map<Integer, String> texts = new HashMap<Integer, String>();
+
+	//the tokens most recently asked for, so that the
+	//parser, which asks for the next token again and
+	//again, mostly gets the same one
+	private final SourceToken[] recent = new SourceToken[64];
+
+	//the end of the file, at which errors at the end of
+	//the file are reported
+	private SourceToken eof;
+
+	private int p = -1;
+	private int lastMarker;
+
+	public CompactTokenStream(Lexer lexer) {
+		this(lexer, Token.DEFAULT_CHANNEL);
+	}
+
+	public CompactTokenStream(Lexer lexer, int channel) {
+		this.lexer = lexer;
+		this.input = lexer.getCharStream();
+		this.channel = channel;
+		int capacity = Math.max(16, input.size()/4);
+		types = new int[capacity];
+		starts = new int[capacity];
+		stops = new int[capacity];
+		lines = new int[capacity];
+		positions = new int[capacity];
+	}
+
+	private void fill() {
+		for (Token t = lexer.nextToken();
+				t!=null && t.getType()!=CharStream.EOF;
+				t = lexer.nextToken()) {
+			if (n==types.length) {
+				grow();
+			}
+			types[n] = t.getType();
+			lines[n] = t.getLine();
+			positions[n] = t.getCharPositionInLine();
+			if (t instanceof SourceToken) {
+				SourceToken st = (SourceToken) t;
+				starts[n] = st.getStartIndex();
+				stops[n] = st.getStopIndex();
+				if (st.getExplicitText()!=null) {
+					texts.put(n, st.getExplicitText());
+				}
+			}
+			else {
+				starts[n] = -1;
+				stops[n] = -1;
+				texts.put(n, t.getText());
+			}
+			if (t.getChannel()!=channel) {
+				channels.put(n, t.getChannel());
+			}
+			n++;
+		}
+		eof = new SourceToken(input, Token.EOF, Token.DEFAULT_CHANNEL,
+				input.size(), input.size()-1);
+		eof.setText("<EOF>");
+		eof.setLine(input.getLine());
+		eof.setCharPositionInLine(input.getCharPositionInLine());
+		eof.setTokenIndex(n);
+		p = skipOffChannel(0);
+	}
+
+	private void grow() {
+		int capacity = types.length*2;
+		types = Arrays.copyOf(types, capacity);
+		starts = Arrays.copyOf(starts, capacity);
+		stops = Arrays.copyOf(stops, capacity);
+		lines = Arrays.copyOf(lines, capacity);
+		positions = Arrays.copyOf(positions, capacity);
+	}
+
+	private boolean isOnChannel(int i) {
+		return channels.isEmpty() || !channels.containsKey(i);
+	}
+
+	private int skipOffChannel(int i) {
+		while (i<n && !isOnChannel(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	private int skipOffChannelReverse(int i) {
+		while (i>=0 && !isOnChannel(i)) {
+			i--;
+		}
+		return i;
+	}
+
+	/**
+	 * The index of the k-th token from the current one
+	 * on the channel, or -1 if there is no such token.
+	 */
+	private int indexOf(int k) {
+		if (p==-1) {
+			fill();
+		}
+		if (k>0) {
+			if (p+k-1>=n) {
+				return -1;
+			}
+			int i = p;
+			for (int j=1; j<k; j++) {
+				i = skipOffChannel(i+1);
+			}
+			return i<n ? i : -1;
+		}
+		else {
+			if (p+k<0) {
+				return -1;
+			}
+			int i = p;
+			for (int j=1; j<=-k; j++) {
+				i = skipOffChannelReverse(i-1);
+			}
+			return i;
+		}
+	}
+
+	@Override
+	public Token LT(int k) {
+		if (k==0) {
+			return null;
+		}
+		int i = indexOf(k);
+		if (i<0) {
+			return k>0 ? eof : null;
+		}
+		return get(i);
+	}
+
+	@Override
+	public int LA(int k) {
+		if (k==0) {
+			return Token.INVALID_TOKEN_TYPE;
+		}
+		int i = indexOf(k);
+		if (i<0) {
+			return k>0 ? CharStream.EOF : Token.INVALID_TOKEN_TYPE;
+		}
+		return types[i];
+	}
+
+	@Override
+	public Token get(int i) {
+		int slot = i & (recent.length-1);
+		SourceToken t = recent[slot];
+		if (t==null || t.getTokenIndex()!=i) {
+			Integer c = channels.isEmpty() ? null : channels.get(i);
+			t = new SourceToken(input, types[i], c==null ? channel : c,
+					starts[i], stops[i]);
+			t.setLine(lines[i]);
+			t.setCharPositionInLine(positions[i]);
+			t.setTokenIndex(i);
+			if (!texts.isEmpty() && texts.containsKey(i)) {
+				t.setText(texts.get(i));
+			}
+			recent[slot] = t;
+		}
+		return t;
+	}
+
+	@Override
+	public void consume() {
+		if (p<n) {
+			p = skipOffChannel(p+1);
+		}
+	}
+
+	@Override
+	public int mark() {
+		if (p==-1) {
+			fill();
+		}
+		lastMarker = index();
+		return lastMarker;
+	}
+
+	@Override
+	public void release(int marker) {}
+
+	@Override
+	public void rewind(int marker) {
+		seek(marker);
+	}
+
+	@Override
+	public void rewind() {
+		seek(lastMarker);
+	}
+
+	@Override
+	public void seek(int index) {
+		p = index;
+	}
+
+	@Override
+	public int index() {
+		return p;
+	}
+
+	/**
+	 * The number of tokens in the stream, on every
+	 * channel.
+	 */
+	@Override
+	public int size() {
+		return n;
+	}
+
+	@Override
+	public TokenSource getTokenSource() {
+		return lexer;
+	}
+
+	@Override
+	public String getSourceName() {
+		return lexer.getSourceName();
+	}
+
+	@Override
+	public String toString(int start, int stop) {
+		if (start<0 || stop<0) {
+			return null;
+		}
+		if (p==-1) {
+			fill();
+		}
+		StringBuilder result = new StringBuilder();
+		for (int i=start; i<=stop && i<n; i++) {
+			result.append(get(i).getText());
+		}
+		return result.toString();
+	}
+
+	@Override
+	public String toString(Token start, Token stop) {
+		if (start==null || stop==null) {
+			return null;
+		}
+		return toString(start.getTokenIndex(), stop.getTokenIndex());
+	}
+
+	@Override
+	public String toString() {
+		if (p==-1) {
+			fill();
+		}
+		return toString(0, n-1);
+	}
+
+}
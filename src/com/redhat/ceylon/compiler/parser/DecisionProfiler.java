@@ -0,0 +1,327 @@
+package com.redhat.ceylon.compiler.parser;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.antlr.runtime.RecognizerSharedState;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenSource;
+import org.antlr.runtime.TokenStream;
+
+/**
+ * Profiles the decisions of the parser which need to
+ * look ahead an arbitrary number of tokens, that is,
+ * the decisions predicted by cyclic DFAs, and the
+ * syntactic predicates, which backtrack. Both mark the
+ * token stream before looking ahead and rewind it
+ * afterwards, so they are observed by wrapping the
+ * token stream. Decisions predicted by a fixed number
+ * of tokens of lookahead are not profiled.
+ *
+ * For each decision, the profiler records how often
+ * it was evaluated, how often it was evaluated again
+ * at a position where it had already been evaluated,
+ * which is what memoization would save, how many
+ * tokens of lookahead it examined, and how deeply the
+ * parser was backtracking when it was evaluated.
+ *
+ * A decision is identified by the rule in which it
+ * occurs, and by the name of the syntactic predicate,
+ * or, for a DFA, by the line of the generated parser
+ * at which it is predicted. Since the decision is
+ * found from the stack, profiling is slow, and is not
+ * meant for timing the parser.
+ */
+public class DecisionProfiler {
+
+	private static final String PARSER = CeylonParser.class.getName();
+	private static final String DFA = org.antlr.runtime.DFA.class.getName();
+
+	private final ConcurrentMap<String, Decision> decisions =
+			new ConcurrentHashMap<String, Decision>();
+
+	/**
+	 * Wrap the tokens which will be parsed by a parser
+	 * with the given state, to profile its decisions.
+	 */
+	public TokenStream profile(TokenStream tokens, RecognizerSharedState state) {
+		return new ProfilingTokenStream(tokens, state);
+	}
+
+	/**
+	 * The profiled decisions, hottest first, that is,
+	 * ordered by the number of tokens they examined.
+	 */
+	public List<Decision> getDecisions() {
+		List<Decision> list = new ArrayList<Decision>(decisions.values());
+		Collections.sort(list, new Comparator<Decision>() {
+			@Override public int compare(Decision x, Decision y) {
+				long dx = x.getTokens();
+				long dy = y.getTokens();
+				return dx<dy ? 1 : dx>dy ? -1 : x.getName().compareTo(y.getName());
+			}
+		});
+		return list;
+	}
+
+	public void printReport(PrintStream out, int top) {
+		out.printf("%-32s %-24s %9s %9s %10s %7s %7s %6s%n", "rule", "decision",
+				"evals", "repeated", "tokens", "avg k", "max k", "depth");
+		List<Decision> list = getDecisions();
+		for (Decision d: list.subList(0, Math.min(top, list.size()))) {
+			out.printf("%-32s %-24s %9d %9d %10d %7.2f %7d %6d%n", d.getRule(), d.getName(),
+					d.getEvaluations(), d.getRepeatedEvaluations(), d.getTokens(),
+					d.getEvaluations()==0 ? 0.0 : (double) d.getTokens() / d.getEvaluations(),
+					d.getMaxLookahead(), d.getMaxBacktracking());
+		}
+	}
+
+	private Decision getDecision(String rule, String name) {
+		String key = rule + " " + name;
+		Decision d = decisions.get(key);
+		if (d==null) {
+			Decision nd = new Decision(rule, name);
+			d = decisions.putIfAbsent(key, nd);
+			if (d==null) {
+				d = nd;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * Find the decision which is marking the stream
+	 * from the stack.
+	 */
+	private Decision findDecision() {
+		StackTraceElement[] stack = new Throwable().getStackTrace();
+		String name = null;
+		for (StackTraceElement e: stack) {
+			String method = e.getMethodName();
+			if (e.getClassName().equals(DFA) && method.equals("predict")) {
+				if (name==null) {
+					name = "dfa";
+				}
+			}
+			else if (e.getClassName().equals(PARSER)) {
+				if (method.startsWith("synpred")) {
+					if (name==null || name.equals("dfa")) {
+						name = method;
+					}
+				}
+				else if (name!=null) {
+					if (name.equals("dfa")) {
+						name = "dfa at line " + e.getLineNumber();
+					}
+					return getDecision(method, name);
+				}
+			}
+		}
+		return getDecision("?", name==null ? "?" : name);
+	}
+
+	/**
+	 * The statistics of one decision.
+	 */
+	public static class Decision {
+		private final String rule;
+		private final String name;
+		private long evaluations;
+		private long repeatedEvaluations;
+		private long tokens;
+		private int maxLookahead;
+		private int maxBacktracking;
+
+		Decision(String rule, String name) {
+			this.rule = rule;
+			this.name = name;
+		}
+
+		synchronized void record(int lookahead, int backtracking, boolean repeated) {
+			evaluations++;
+			if (repeated) {
+				repeatedEvaluations++;
+			}
+			tokens += lookahead;
+			maxLookahead = Math.max(maxLookahead, lookahead);
+			maxBacktracking = Math.max(maxBacktracking, backtracking);
+		}
+
+		public String getRule() {
+			return rule;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public synchronized long getEvaluations() {
+			return evaluations;
+		}
+
+		public synchronized long getRepeatedEvaluations() {
+			return repeatedEvaluations;
+		}
+
+		public synchronized long getTokens() {
+			return tokens;
+		}
+
+		public synchronized int getMaxLookahead() {
+			return maxLookahead;
+		}
+
+		public synchronized int getMaxBacktracking() {
+			return maxBacktracking;
+		}
+
+		@Override
+		public String toString() {
+			return "Decision[" + rule + " " + name + "]";
+		}
+	}
+
+	/**
+	 * An evaluation of a decision in progress.
+	 */
+	private static class Evaluation {
+		final Decision decision;
+		final int start;
+		final int backtracking;
+		int end;
+
+		Evaluation(Decision decision, int start, int backtracking) {
+			this.decision = decision;
+			this.start = start;
+			this.backtracking = backtracking;
+			end = start;
+		}
+	}
+
+	private class ProfilingTokenStream implements TokenStream {
+		private final TokenStream tokens;
+		private final RecognizerSharedState state;
+		private final List<Evaluation> evaluations = new ArrayList<Evaluation>();
+		private final Set<String> evaluated = new HashSet<String>();
+
+		ProfilingTokenStream(TokenStream tokens, RecognizerSharedState state) {
+			this.tokens = tokens;
+			this.state = state;
+		}
+
+		private void lookahead(int i) {
+			if (i>0 && !evaluations.isEmpty()) {
+				int end = tokens.index() + i;
+				for (Evaluation e: evaluations) {
+					if (end>e.end) {
+						e.end = end;
+					}
+				}
+			}
+		}
+
+		private void completed() {
+			if (!evaluations.isEmpty()) {
+				Evaluation e = evaluations.remove(evaluations.size()-1);
+				boolean repeated = !evaluated.add(e.decision.getRule() + " " +
+						e.decision.getName() + " " + e.start);
+				e.decision.record(e.end - e.start, e.backtracking, repeated);
+			}
+		}
+
+		@Override
+		public int mark() {
+			int marker = tokens.mark();
+			evaluations.add(new Evaluation(findDecision(), tokens.index(),
+					state.backtracking));
+			return marker;
+		}
+
+		@Override
+		public void rewind(int marker) {
+			completed();
+			tokens.rewind(marker);
+		}
+
+		@Override
+		public void rewind() {
+			completed();
+			tokens.rewind();
+		}
+
+		@Override
+		public Token LT(int k) {
+			lookahead(k);
+			return tokens.LT(k);
+		}
+
+		@Override
+		public int LA(int i) {
+			lookahead(i);
+			return tokens.LA(i);
+		}
+
+		@Override
+		public void consume() {
+			tokens.consume();
+		}
+
+		@Override
+		public int index() {
+			return tokens.index();
+		}
+
+		@Override
+		public void release(int marker) {
+			tokens.release(marker);
+		}
+
+		@Override
+		public void seek(int index) {
+			tokens.seek(index);
+		}
+
+		@Override
+		public int size() {
+			return tokens.size();
+		}
+
+		@Override
+		public String getSourceName() {
+			return tokens.getSourceName();
+		}
+
+		@Override
+		public Token get(int i) {
+			return tokens.get(i);
+		}
+
+		@Override
+		public TokenSource getTokenSource() {
+			return tokens.getTokenSource();
+		}
+
+		@Override
+		public String toString(int start, int stop) {
+			return tokens.toString(start, stop);
+		}
+
+		@Override
+		public String toString(Token start, Token stop) {
+			return tokens.toString(start, stop);
+		}
+
+		@Override
+		public String toString() {
+			return tokens.toString();
+		}
+	}
+
+}
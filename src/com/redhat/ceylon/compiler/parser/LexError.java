@@ -11,9 +11,23 @@ public class LexError extends RecognitionError {
 		return (char) recognitionException.c;
 	}
 	
+	@Override
+	public int getOffset() {
+		return recognitionException.index;
+	}
+	
 	public String getMessage(CeylonLexer lexer) {
 		return lexer.getErrorHeader(recognitionException) + " - " +
 		lexer.getErrorMessage(recognitionException, tokenNames);
 	}
 	
+	/**
+	 * The message, with the position of the error found
+	 * by the line table of the source.
+	 */
+	public String getMessage(CeylonLexer lexer, LineTable lineTable) {
+		return getErrorHeader(lineTable) + " - " +
+		lexer.getErrorMessage(recognitionException, tokenNames);
+	}
+	
 }
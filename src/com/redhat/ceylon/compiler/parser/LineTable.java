@@ -0,0 +1,101 @@
+package com.redhat.ceylon.compiler.parser;
+
+import java.util.Arrays;
+
+/**
+ * The offset in the source at which each line of a
+ * file starts, recorded by the character stream as the
+ * lexer reaches each line. A line and position in the
+ * line are converted to an offset in constant time.
+ * An offset is converted to a line by a binary search
+ * over the line starts, in O(log n) for n lines, so
+ * that the table costs one int per line rather than
+ * one per character. Lines are numbered from 1 and
+ * positions in a line from 0, as by the lexer.
+ */
+public class LineTable {
+
+	private int[] starts = new int[64];
+	private int count = 1;
+	private int length = -1;
+
+	/**
+	 * Record the start of the next line, if it has not
+	 * already been recorded.
+	 */
+	void addLine(int line, int start) {
+		if (line>count) {
+			if (count==starts.length) {
+				starts = Arrays.copyOf(starts, count*2);
+			}
+			starts[count++] = start;
+		}
+	}
+
+	/**
+	 * Record the number of characters in the source, so
+	 * that the end of the last line is known.
+	 */
+	void setLength(int length) {
+		this.length = length;
+	}
+
+	/**
+	 * The number of lines recorded so far.
+	 */
+	public int getLineCount() {
+		return count;
+	}
+
+	/**
+	 * The offset of the first character of the line.
+	 */
+	public int getLineStart(int line) {
+		if (line<1 || line>count) {
+			throw new IndexOutOfBoundsException("line: " + line + ", lines: " + count);
+		}
+		return starts[line-1];
+	}
+
+	/**
+	 * The offset of the given position in the line. A
+	 * position past the end of the line is rejected,
+	 * rather than mapped into a following line. The end
+	 * of the last line, where the lexer reports the end
+	 * of the file, is a position in it.
+	 */
+	public int getOffset(int line, int charPositionInLine) {
+		int start = getLineStart(line);
+		int end;
+		if (line<count) {
+			//the last position is the line terminator
+			end = starts[line]-1;
+		}
+		else {
+			end = length<0 ? Integer.MAX_VALUE : length;
+		}
+		if (charPositionInLine<0 || charPositionInLine>end-start) {
+			throw new IndexOutOfBoundsException("position: " + charPositionInLine + 
+					", last in line " + line + ": " + (end-start));
+		}
+		return start + charPositionInLine;
+	}
+
+	/**
+	 * The line containing the character at the given
+	 * offset, found in O(log n) for n lines.
+	 */
+	public int getLine(int offset) {
+		int i = Arrays.binarySearch(starts, 0, count, offset);
+		return i>=0 ? i+1 : -i-1;
+	}
+
+	/**
+	 * The position in its line of the character at the
+	 * given offset, found in O(log n) for n lines.
+	 */
+	public int getCharPositionInLine(int offset) {
+		return offset - getLineStart(getLine(offset));
+	}
+
+}
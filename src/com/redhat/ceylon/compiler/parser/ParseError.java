@@ -1,6 +1,8 @@
 package com.redhat.ceylon.compiler.parser;
 
+import org.antlr.runtime.CommonToken;
 import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.Token;
 
 public class ParseError extends RecognitionError {
 	
@@ -12,9 +14,29 @@ public class ParseError extends RecognitionError {
 		return recognitionException.token.getText();
 	}
 	
+	/**
+	 * The offset of the first character of the token at
+	 * which the error was found.
+	 */
+	@Override
+	public int getOffset() {
+		Token token = recognitionException.token;
+		return token instanceof CommonToken ? 
+				((CommonToken) token).getStartIndex() : -1;
+	}
+	
 	public String getMessage(CeylonParser parser) {
 		return parser.getErrorHeader(recognitionException) + " - " +
 			parser.getErrorMessage(recognitionException, tokenNames);
 	}
 	
+	/**
+	 * The message, with the position of the error found
+	 * by the line table of the source.
+	 */
+	public String getMessage(CeylonParser parser, LineTable lineTable) {
+		return getErrorHeader(lineTable) + " - " +
+			parser.getErrorMessage(recognitionException, tokenNames);
+	}
+	
 }
@@ -28,4 +28,27 @@ public class RecognitionError {
 		return recognitionException.charPositionInLine;
 	}
 	
+	/**
+	 * The offset in the source at which the error was
+	 * found, or -1 if it is not known.
+	 */
+	public int getOffset() {
+		return -1;
+	}
+	
+	/**
+	 * The line and position in the line at which the
+	 * error was found, converted from its offset by the
+	 * line table of the source, or, if the offset is not
+	 * known, as given by the recognizer.
+	 */
+	String getErrorHeader(LineTable lineTable) {
+		int offset = getOffset();
+		if (lineTable==null || offset<0) {
+			return "line " + getLine() + ":" + getCharacterInLine();
+		}
+		return "line " + lineTable.getLine(offset) + ":" + 
+				lineTable.getCharPositionInLine(offset);
+	}
+	
 }
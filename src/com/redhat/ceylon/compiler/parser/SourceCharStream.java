@@ -0,0 +1,293 @@
+package com.redhat.ceylon.compiler.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import org.antlr.runtime.CharStream;
+
+/**
+ * A character stream over the contents of a source
+ * file, which is expected to be UTF-8. If the file is
+ * pure ASCII, as most sources are, the lexer reads the
+ * characters directly from the bytes, with no copy
+ * into an array of chars. Otherwise the file is
+ * decoded once, straight from the bytes into an array
+ * of exactly the size required. Malformed input is
+ * replaced by U+FFFD.
+ *
+ * The file is read into an array on the heap in a
+ * single read, and closed, rather than mapped. The
+ * tokens and nodes of a tree keep the stream, and the
+ * daemon keeps its trees resident, so a mapped stream
+ * would keep every file mapped for as long as its tree
+ * lived, and a mapping can't be released on demand.
+ * Reading a source file, which is small, costs no more
+ * than mapping it. Contents passed in a direct or
+ * mapped buffer are copied to the heap for the same
+ * reason.
+ */
+public class SourceCharStream implements CharStream {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer bytes;
+	private final char[] chars;
+	private final int n;
+	private final String name;
+
+	private int p = 0;
+	private int line = 1;
+	private int charPositionInLine = 0;
+	private final LineTable lineTable = new LineTable();
+
+	//the position, line and position in line of each
+	//mark, three ints per mark, indexed by depth
+	private int[] markers = new int[3*4];
+	private int markDepth = 0;
+	private int lastMarker;
+
+	public SourceCharStream(File file) throws IOException {
+		this(read(file), file.getPath());
+	}
+
+	public SourceCharStream(ByteBuffer content, String name) throws IOException {
+		this.name = name;
+		if (content.hasArray()) {
+			bytes = content.slice();
+		}
+		else {
+			bytes = ByteBuffer.allocate(content.remaining());
+			bytes.put(content.duplicate()).flip();
+		}
+		if (isAscii(bytes)) {
+			chars = null;
+			n = bytes.limit();
+		}
+		else {
+			chars = decode(bytes);
+			n = chars.length;
+		}
+		lineTable.setLength(n);
+	}
+
+	/**
+	 * Read the whole file into a buffer on the heap,
+	 * and close it.
+	 */
+	public static ByteBuffer read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length()>Integer.MAX_VALUE) {
+				throw new IOException("file too large: " + file);
+			}
+			byte[] content = new byte[(int) raf.length()];
+			raf.readFully(content);
+			return ByteBuffer.wrap(content);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * The undecoded contents of the file.
+	 */
+	public ByteBuffer getContent() {
+		return bytes.asReadOnlyBuffer();
+	}
+
+	/**
+	 * The start of each line consumed so far.
+	 */
+	public LineTable getLineTable() {
+		return lineTable;
+	}
+
+	/**
+	 * Whether the characters are read directly from
+	 * the bytes.
+	 */
+	public boolean isAscii() {
+		return chars==null;
+	}
+
+	private static boolean isAscii(ByteBuffer bytes) {
+		int limit = bytes.limit();
+		int i = 0;
+		for (; i+8<=limit; i+=8) {
+			if ((bytes.getLong(i) & 0x8080808080808080L)!=0) {
+				return false;
+			}
+		}
+		for (; i<limit; i++) {
+			if (bytes.get(i)<0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static char[] decode(ByteBuffer bytes) throws IOException {
+		CharsetDecoder decoder = UTF8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		//UTF-8 never needs more chars than bytes
+		char[] chars = new char[bytes.limit()];
+		CharBuffer out = CharBuffer.wrap(chars);
+		ByteBuffer in = bytes.duplicate();
+		CoderResult cr = decoder.decode(in, out, true);
+		if (cr.isError()) {
+			cr.throwException();
+		}
+		decoder.flush(out);
+		if (out.position()==chars.length) {
+			return chars;
+		}
+		char[] result = new char[out.position()];
+		System.arraycopy(chars, 0, result, 0, result.length);
+		return result;
+	}
+
+	private char charAt(int i) {
+		return chars==null ? (char) bytes.get(i) : chars[i];
+	}
+
+	@Override
+	public void consume() {
+		if (p<n) {
+			charPositionInLine++;
+			if (charAt(p)=='\n') {
+				line++;
+				charPositionInLine = 0;
+				lineTable.addLine(line, p+1);
+			}
+			p++;
+		}
+	}
+
+	@Override
+	public int LA(int i) {
+		if (i==0) {
+			return 0;
+		}
+		if (i<0) {
+			i++;
+			if (p+i-1<0) {
+				return CharStream.EOF;
+			}
+		}
+		if (p+i-1>=n) {
+			return CharStream.EOF;
+		}
+		return charAt(p+i-1);
+	}
+
+	@Override
+	public int LT(int i) {
+		return LA(i);
+	}
+
+	@Override
+	public String substring(int start, int stop) {
+		if (chars!=null) {
+			return new String(chars, start, stop-start+1);
+		}
+		char[] text = new char[stop-start+1];
+		for (int i=0; i<text.length; i++) {
+			text[i] = (char) bytes.get(start+i);
+		}
+		return new String(text);
+	}
+
+	@Override
+	public int index() {
+		return p;
+	}
+
+	@Override
+	public int size() {
+		return n;
+	}
+
+	@Override
+	public int mark() {
+		markDepth++;
+		if (3*markDepth+3>markers.length) {
+			int[] grown = new int[markers.length*2];
+			System.arraycopy(markers, 0, grown, 0, markers.length);
+			markers = grown;
+		}
+		markers[3*markDepth] = p;
+		markers[3*markDepth+1] = line;
+		markers[3*markDepth+2] = charPositionInLine;
+		lastMarker = markDepth;
+		return markDepth;
+	}
+
+	@Override
+	public void rewind(int marker) {
+		seek(markers[3*marker]);
+		line = markers[3*marker+1];
+		charPositionInLine = markers[3*marker+2];
+		release(marker);
+	}
+
+	@Override
+	public void rewind() {
+		rewind(lastMarker);
+	}
+
+	@Override
+	public void release(int marker) {
+		markDepth = marker-1;
+	}
+
+	@Override
+	public void seek(int index) {
+		if (index<=p) {
+			p = index;
+		}
+		else {
+			while (p<index) {
+				consume();
+			}
+		}
+	}
+
+	@Override
+	public int getLine() {
+		return line;
+	}
+
+	@Override
+	public void setLine(int line) {
+		this.line = line;
+	}
+
+	@Override
+	public int getCharPositionInLine() {
+		return charPositionInLine;
+	}
+
+	@Override
+	public void setCharPositionInLine(int pos) {
+		charPositionInLine = pos;
+	}
+
+	@Override
+	public String getSourceName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return substring(0, n-1);
+	}
+
+}
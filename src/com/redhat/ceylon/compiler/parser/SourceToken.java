@@ -0,0 +1,52 @@
+package com.redhat.ceylon.compiler.parser;
+
+import org.antlr.runtime.CharStream;
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Token;
+
+/**
+ * A token created by the lexer, whose text is only
+ * copied out of the source when it is first asked
+ * for, so that, until then, a token held by a node
+ * of the tree costs only its offsets in the source.
+ * Unlike a CommonToken, a source token may be copied
+ * without copying its text.
+ */
+public class SourceToken extends CommonToken {
+
+	private static final long serialVersionUID = 1L;
+
+	public SourceToken(CharStream input, int type, int channel, int start, int stop) {
+		super(input, type, channel, start, stop);
+	}
+
+	/**
+	 * The text of the token, if it was set explicitly or
+	 * has already been copied out of the source, or null.
+	 */
+	String getExplicitText() {
+		return text;
+	}
+
+	/**
+	 * A copy of a token, which, if the token is a
+	 * source token, shares its source rather than
+	 * copying its text.
+	 */
+	public static CommonToken copy(Token token) {
+		if (token instanceof SourceToken) {
+			SourceToken st = (SourceToken) token;
+			SourceToken result = new SourceToken(st.input, st.type, st.channel,
+					st.start, st.stop);
+			result.text = st.text;
+			result.line = st.line;
+			result.charPositionInLine = st.charPositionInLine;
+			result.index = st.index;
+			return result;
+		}
+		else {
+			return new CommonToken(token);
+		}
+	}
+
+}
@@ -0,0 +1,43 @@
+package com.redhat.ceylon.compiler.parser;
+
+import org.antlr.runtime.Token;
+
+import com.redhat.ceylon.compiler.model.Symbol;
+
+/**
+ * The token of an identifier, which carries the
+ * symbol of its name, interned as the tree is built,
+ * so that the analyzer resolves the identifier by
+ * its symbol. The text of the token is the name of
+ * the symbol, so the identifiers of a compilation
+ * share one string per name.
+ */
+public class SymbolToken extends SourceToken {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Symbol symbol;
+
+	private SymbolToken(Token token, Symbol symbol) {
+		super(token.getInputStream(), token.getType(), token.getChannel(),
+				token instanceof SourceToken ? ((SourceToken) token).getStartIndex() : -1,
+				token instanceof SourceToken ? ((SourceToken) token).getStopIndex() : -1);
+		this.symbol = symbol;
+		text = symbol.getName();
+		line = token.getLine();
+		charPositionInLine = token.getCharPositionInLine();
+		index = token.getTokenIndex();
+	}
+
+	public Symbol getSymbol() {
+		return symbol;
+	}
+
+	/**
+	 * A copy of a token, carrying the given symbol.
+	 */
+	public static SymbolToken copy(Token token, Symbol symbol) {
+		return new SymbolToken(token, symbol);
+	}
+
+}
@@ -0,0 +1,39 @@
+package com.redhat.ceylon.compiler.tree;
+
+/**
+ * An error found by the analyzer at a node of the
+ * tree. Analysis continues past the error, giving
+ * the node an error type where it needs a type.
+ */
+public class AnalysisError {
+
+    private final Node node;
+    private final String message;
+
+    public AnalysisError(Node node, String message) {
+        this.node = node;
+        this.message = message;
+    }
+
+    public Node getNode() {
+        return node;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public int getLine() {
+        return node.getLine();
+    }
+
+    public int getCharacterInLine() {
+        return node.getCharPositionInLine();
+    }
+
+    @Override
+    public String toString() {
+        return "line " + getLine() + ":" + getCharacterInLine() + " - " + message;
+    }
+
+}
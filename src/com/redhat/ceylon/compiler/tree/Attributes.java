@@ -0,0 +1,114 @@
+package com.redhat.ceylon.compiler.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.redhat.ceylon.compiler.model.Model;
+import com.redhat.ceylon.compiler.model.Scope;
+import com.redhat.ceylon.compiler.model.Type;
+import com.redhat.ceylon.compiler.model.Unit;
+
+/**
+ * The semantic attributes of the nodes of a
+ * compilation unit, held by its root. Since most
+ * nodes have no model and no type, and the unit and
+ * scope of a node are those of its ancestors, the
+ * attributes are kept in tables rather than in fields
+ * of every node:
+ *
+ * - the unit, and the scopes entered by declarations
+ *   and control clauses, are recorded by the
+ *   declaration phase,
+ * - the models of declarations are recorded by the
+ *   declaration phase, and those of types and member
+ *   references by the type and expression phases,
+ * - the types of types and expressions are recorded
+ *   by the type and expression phases.
+ *
+ * The errors found by the analyzer are kept with the
+ * attributes, in the order they were recorded.
+ *
+ * A node is given a row of the tables when the first
+ * of its attributes is recorded.
+ *
+ * The toplevel declarations of a unit may be checked
+ * concurrently, so rows are added and attributes
+ * recorded under the lock of the tables, and a table
+ * is only published once it has been filled. An
+ * attribute may be read without the lock by the
+ * thread which recorded it, or once the phase which
+ * recorded it has completed.
+ */
+class Attributes {
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private Unit unit;
+    private int rows;
+    private volatile Object[] scopes = EMPTY;
+    private volatile Object[] modelNodes = EMPTY;
+    private volatile Object[] typeModels = EMPTY;
+    private final List<AnalysisError> errors = new ArrayList<AnalysisError>();
+
+    Unit getUnit() {
+        return unit;
+    }
+
+    void setUnit(Unit unit) {
+        this.unit = unit;
+    }
+
+    synchronized int addRow() {
+        return rows++;
+    }
+
+    Scope getScope(int row) {
+        return (Scope) get(scopes, row);
+    }
+
+    synchronized void setScope(int row, Scope scope) {
+        scopes = set(scopes, row, scope);
+    }
+
+    Model getModelNode(int row) {
+        return (Model) get(modelNodes, row);
+    }
+
+    synchronized void setModelNode(int row, Model model) {
+        modelNodes = set(modelNodes, row, model);
+    }
+
+    Type getTypeModel(int row) {
+        return (Type) get(typeModels, row);
+    }
+
+    synchronized void setTypeModel(int row, Type type) {
+        typeModels = set(typeModels, row, type);
+    }
+
+    synchronized void addError(AnalysisError error) {
+        errors.add(error);
+    }
+
+    synchronized List<AnalysisError> getErrors() {
+        return new ArrayList<AnalysisError>(errors);
+    }
+
+    synchronized void clearErrors() {
+        errors.clear();
+    }
+
+    private static Object get(Object[] table, int row) {
+        return row>=0 && row<table.length ? table[row] : null;
+    }
+
+    private static Object[] set(Object[] table, int row, Object value) {
+        if (row>=table.length) {
+            table = Arrays.copyOf(table, Math.max(Math.max(16, row+1), table.length*2));
+        }
+        table[row] = value;
+        return table;
+    }
+
+}
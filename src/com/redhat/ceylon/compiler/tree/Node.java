@@ -1,5 +1,11 @@
 package com.redhat.ceylon.compiler.tree;
 
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Token;
 import org.antlr.runtime.tree.CommonTree;
 
 import com.redhat.ceylon.compiler.model.Model;
@@ -9,27 +15,206 @@ import com.redhat.ceylon.compiler.model.Unit;
 
 public abstract class Node {
     
-    private String text;
-    private final CommonTree antlrTreeNode;
-    private Model modelNode;
-    private Scope scope;
-    private Unit unit;
-    private Type typeModel;
+    private CommonTree antlrTreeNode;
+    private Token token;
+    //-1 until known, when the position comes from the
+    //first child, as for a CommonTree
+    private int line;
+    private int charPositionInLine;
+    private Node parent;
+    //the semantic attributes of the tree, and the row
+    //of this node in their tables, or -1 if none of
+    //its attributes has been recorded
+    private Attributes attributes;
+    private int row = -1;
+    //the kinds of this node and of the nodes beneath
+    //it, a bit per kind, several kinds sharing a bit
+    private long kinds;
+    //the offsets in the source of the first and last
+    //characters of the node and the nodes beneath it,
+    //or -1 if none of them has a token in the source
+    private int startIndex = -1;
+    private int stopIndex = -1;
     
     protected Node(CommonTree antlrTreeNode) {
         this.antlrTreeNode = antlrTreeNode; 
-        text = antlrTreeNode.getText();
+        token = antlrTreeNode.getToken();
+        if (token==null && antlrTreeNode.getText()!=null) {
+            //an error node
+            token = new CommonToken(antlrTreeNode.getType(), antlrTreeNode.getText());
+        }
+        line = antlrTreeNode.getLine();
+        charPositionInLine = antlrTreeNode.getCharPositionInLine();
+        setIndexes();
+    }
+    
+    /**
+     * A node built directly by the parser, with no
+     * corresponding ANTLR tree node.
+     */
+    protected Node(Token token) {
+        this.token = token;
+        if (token==null) {
+            line = -1;
+            charPositionInLine = -1;
+        }
+        else {
+            line = token.getLine()==0 ? -1 : token.getLine();
+            charPositionInLine = token.getCharPositionInLine();
+        }
+        setIndexes();
+    }
+    
+    private void setIndexes() {
+        if (token instanceof CommonToken && 
+                token.getInputStream()!=null) {
+            CommonToken ct = (CommonToken) token;
+            if (ct.getStartIndex()>=0 && 
+                    ct.getStopIndex()>=ct.getStartIndex()) {
+                startIndex = ct.getStartIndex();
+                stopIndex = ct.getStopIndex();
+            }
+        }
+    }
+    
+    /**
+     * The node of which this node is a child, or null
+     * for the root of a tree.
+     */
+    public Node getParent() {
+        return parent;
+    }
+    
+    void connect(Node child) {
+        if (child!=null) {
+            child.parent = this;
+            for (Node n=this; n!=null && (n.kinds|child.kinds)!=n.kinds; n=n.parent) {
+                n.kinds |= child.kinds;
+            }
+            if (child.startIndex>=0) {
+                for (Node n=this; n!=null && n.include(child); n=n.parent) {}
+            }
+        }
+    }
+    
+    /**
+     * Extend the range of the node to include that of
+     * the given node, returning true if it changed.
+     */
+    private boolean include(Node node) {
+        boolean changed = false;
+        if (startIndex<0 || node.startIndex<startIndex) {
+            startIndex = node.startIndex;
+            changed = true;
+        }
+        if (node.stopIndex>stopIndex) {
+            stopIndex = node.stopIndex;
+            changed = true;
+        }
+        return changed;
+    }
+    
+    void addKind(long kind) {
+        kinds |= kind;
+    }
+    
+    /**
+     * A summary of the kinds of node in the subtree,
+     * with the KIND bit of each class of Tree, and of
+     * the classes it extends, for each of its nodes.
+     * Since the kinds share the 64 bits, the summary
+     * may have the bit of a kind which does not occur
+     * in the subtree, but never lacks the bit of a
+     * kind which does.
+     */
+    public long getKinds() {
+        return kinds;
+    }
+    
+    /**
+     * The offset in the source of the first character
+     * of the node or of the nodes beneath it, or -1 if
+     * none of them has a token in the source.
+     */
+    public int getStartIndex() {
+        return startIndex;
+    }
+    
+    /**
+     * The offset in the source of the last character
+     * of the node or of the nodes beneath it, or -1 if
+     * none of them has a token in the source.
+     */
+    public int getStopIndex() {
+        return stopIndex;
+    }
+    
+    /**
+     * The semantic attributes of the tree, held by its
+     * root compilation unit, and created if necessary. 
+     * Once found, they are remembered by the node and
+     * the nodes between it and the ancestor they were
+     * found at. They are found by a loop, rather than by
+     * recursion, so that deep trees cannot overflow the
+     * stack.
+     */
+    private Attributes getAttributes(boolean create) {
+        if (attributes==null) {
+            Node n = this;
+            while (n.attributes==null && n.parent!=null) {
+                n = n.parent;
+            }
+            if (n.attributes==null) {
+                if (n instanceof Tree.CompilationUnit) {
+                    if (create) {
+                        n.attributes = new Attributes();
+                    }
+                }
+                else if (create) {
+                    throw new RuntimeException("node does not belong to a compilation unit: " + n);
+                }
+            }
+            for (Node m = this; m!=n; m=m.parent) {
+                m.attributes = n.attributes;
+            }
+        }
+        return attributes;
+    }
+    
+    /**
+     * The row of the node in the tables of the semantic
+     * attributes of the tree, added if necessary.
+     */
+    private int getRow() {
+        if (row<0) {
+            row = getAttributes(true).addRow();
+        }
+        return row;
     }
     
     /**
-     * The scope within which the node occurs. 
+     * The scope within which the node occurs: the scope
+     * entered by the node or its nearest ancestor which
+     * enters a scope. 
      */
     public Scope getScope() {
-        return scope;
+        for (Node n=this; n!=null; n=n.parent) {
+            if (n.row>=0) {
+                Scope scope = n.attributes.getScope(n.row);
+                if (scope!=null) {
+                    return scope;
+                }
+            }
+        }
+        return null;
     }
 
+    /**
+     * Record the scope entered by the node, which is
+     * the scope of its descendants.
+     */
     public void setScope(Scope scope) {
-        this.scope = scope;
+        getAttributes(true).setScope(getRow(), scope);
     }
     
     /**
@@ -37,11 +222,11 @@ public abstract class Node {
      * nodes do not have a type.
      */
     public Type getTypeModel() {
-        return typeModel;
+        return row<0 ? null : attributes.getTypeModel(row);
     }
     
     public void setTypeModel(Type type) {
-        this.typeModel = type;
+        getAttributes(true).setTypeModel(getRow(), type);
     }
     
     /**
@@ -49,11 +234,12 @@ public abstract class Node {
      * occurs.
      */
     public Unit getUnit() {
-        return unit;
+        Attributes attributes = getAttributes(false);
+        return attributes==null ? null : attributes.getUnit();
     }
     
     public void setUnit(Unit unit) {
-        this.unit = unit;
+        getAttributes(true).setUnit(unit);
     }
 
     /**
@@ -62,36 +248,148 @@ public abstract class Node {
      * are not isomorphic.
      */
     public com.redhat.ceylon.compiler.model.Model getModelNode() {
-        return modelNode;
+        return row<0 ? null : attributes.getModelNode(row);
     }
 
     public void setModelNode(com.redhat.ceylon.compiler.model.Model modelNode) {
-        this.modelNode = modelNode;
+        getAttributes(true).setModelNode(getRow(), modelNode);
+    }
+    
+    /**
+     * Record an error found by the analyzer at this
+     * node.
+     */
+    public void addError(String message) {
+        getAttributes(true).addError(new AnalysisError(this, message));
     }
     
     /**
-     * The text of the corresponding ANTLR node.
+     * The errors recorded for the nodes of the tree
+     * to which this node belongs, ordered by position.
+     * Errors at the same position are in the order 
+     * they were recorded.
+     */
+    public List<AnalysisError> getErrors() {
+        Attributes attributes = getAttributes(false);
+        if (attributes==null) {
+            return Collections.emptyList();
+        }
+        List<AnalysisError> errors = attributes.getErrors();
+        Collections.sort(errors, new Comparator<AnalysisError>() {
+            @Override public int compare(AnalysisError x, AnalysisError y) {
+                if (x.getLine()!=y.getLine()) {
+                    return x.getLine()<y.getLine() ? -1 : 1;
+                }
+                if (x.getCharacterInLine()!=y.getCharacterInLine()) {
+                    return x.getCharacterInLine()<y.getCharacterInLine() ? -1 : 1;
+                }
+                return 0;
+            }
+        });
+        return errors;
+    }
+    
+    /**
+     * Forget the errors recorded for the nodes of the
+     * tree, before it is analysed again.
+     */
+    public void clearErrors() {
+        Attributes attributes = getAttributes(false);
+        if (attributes!=null) {
+            attributes.clearErrors();
+        }
+    }
+    
+    /**
+     * The text of the corresponding ANTLR node, that
+     * is, of its token.
      */
     public String getText() {
-        return text;
+        return token==null ? null : token.getText();
     }
     
     public void setText(String text) {
-        this.text = text;
+        if (token==null) {
+            token = new CommonToken(Token.INVALID_TOKEN_TYPE, text);
+        }
+        else {
+            token.setText(text);
+        }
+    }
+    
+    /**
+     * The token from which the node was created. For
+     * an imaginary node, the token has no position.
+     */
+    public Token getToken() {
+        return token;
     }
     
     /**
-     * The text of the corresponding ANTLR tree node. Never null, 
-     * since the two trees are isomorphic.
+     * The line of the token, or, if it has none, of
+     * the first child of the ANTLR node.
+     */
+    public int getLine() {
+        return line<0 ? 0 : line;
+    }
+    
+    /**
+     * The position in the line of the token, or, if 
+     * it has none, of the first child of the ANTLR
+     * node.
+     */
+    public int getCharPositionInLine() {
+        return charPositionInLine<0 ? 0 : charPositionInLine;
+    }
+    
+    /**
+     * Take the position of the node from its first 
+     * child, if its token has none.
+     */
+    void setChildPosition(int line, int charPositionInLine) {
+        if (this.line<0) {
+            this.line = line;
+        }
+        if (this.charPositionInLine<0) {
+            this.charPositionInLine = charPositionInLine;
+        }
+    }
+    
+    /**
+     * The corresponding ANTLR tree node, or null if the
+     * node was built directly by the parser, or the
+     * ANTLR tree has been released.
      */
     public CommonTree getAntlrTreeNode() {
         return antlrTreeNode;
     }
     
+    /**
+     * Release the ANTLR tree from which this node and
+     * its descendants were built, so that it may be
+     * collected, once it is no longer needed.
+     */
+    public void releaseAntlrTree() {
+        antlrTreeNode = null;
+        visitChildren(new Visitor() {
+            @Override
+            public void visitAny(Node that) {
+                that.antlrTreeNode = null;
+                super.visitAny(that);
+            }
+        });
+    }
+    
+    /**
+     * Visit this node, calling the visit method of the
+     * visitor for the class of the node.
+     */
+    public abstract void visit(Visitor visitor);
+    
     public abstract void visitChildren(Visitor visitor);
     
     @Override
     public String toString() {
-        return getClass().getSimpleName() + "(" + text + ")"; 
+        return getClass().getSimpleName() + "(" + getText() + ")"; 
     }
 }
@@ -0,0 +1,409 @@
+package com.redhat.ceylon.compiler.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenStream;
+import org.antlr.runtime.tree.CommonErrorNode;
+import org.antlr.runtime.tree.TreeAdaptor;
+
+import com.redhat.ceylon.compiler.model.SymbolTable;
+import com.redhat.ceylon.compiler.parser.CeylonParser;
+import com.redhat.ceylon.compiler.parser.SourceToken;
+import com.redhat.ceylon.compiler.parser.SymbolToken;
+import com.redhat.ceylon.compiler.tree.Tree.CompilationUnit;
+
+/**
+ * A tree adaptor with which the parser builds the
+ * nodes of the typesafe tree directly, in one pass,
+ * instead of a CommonTree for the Builder to walk
+ * afterwards. Each child is added to its node as
+ * the parser adds it to the ANTLR tree, with the
+ * same rules the Builder would apply, so the result
+ * is the same tree.
+ *
+ * Lists of nodes, tokens for which the tree has no
+ * node, and errors, are represented by fragments,
+ * which are discarded once their nodes have been
+ * added to a parent. The ANTLR children of a node
+ * are never kept, so nodes may not be navigated or
+ * edited through the adaptor. An adaptor should be
+ * used for one parse only.
+ *
+ * Given a symbol table, the adaptor interns the name
+ * of each identifier as it is created, and the token
+ * of its node carries the symbol.
+ */
+public class NodeTreeAdaptor implements TreeAdaptor {
+
+    private final Builder builder = new Builder();
+    private final SymbolTable symbolTable;
+    
+    public NodeTreeAdaptor() {
+        this(null);
+    }
+    
+    public NodeTreeAdaptor(SymbolTable symbolTable) {
+        this.symbolTable = symbolTable;
+    }
+
+    /**
+     * The compilation unit built by the parser, given
+     * the tree returned by its compilationUnit rule.
+     */
+    public CompilationUnit getCompilationUnit(Object tree) {
+        if (tree instanceof CompilationUnit) {
+            return (CompilationUnit) tree;
+        }
+        //the parser recovered from an error, as for
+        //the Builder, the root becomes the compilation
+        //unit
+        CompilationUnit cu = new CompilationUnit(tree==null ? null : getToken(tree));
+        if (tree!=null) {
+            cu.setText(getText(tree));
+            cu.setChildPosition(getLine(tree), getCharPositionInLine(tree));
+        }
+        if (tree instanceof Fragment && ((Fragment) tree).children!=null) {
+            for (Object child: ((Fragment) tree).children) {
+                if (child instanceof Node) {
+                    Node node = (Node) child;
+                    builder.addCompilationUnitChild(cu, node.getToken().getType(), node);
+                }
+            }
+        }
+        return cu;
+    }
+
+    @Override
+    public Object create(Token payload) {
+        if (payload==null) {
+            return nil();
+        }
+        Node node = builder.create(payload);
+        return node==null ? new Fragment(payload) : node;
+    }
+
+    @Override
+    public Object create(int tokenType, Token fromToken) {
+        if (isSymbol(tokenType)) {
+            return create(tokenType, fromToken, fromToken.getText());
+        }
+        CommonToken token = SourceToken.copy(fromToken);
+        token.setType(tokenType);
+        return create(token);
+    }
+
+    @Override
+    public Object create(int tokenType, Token fromToken, String text) {
+        if (fromToken==null) {
+            return create(tokenType, text);
+        }
+        CommonToken token;
+        if (isSymbol(tokenType)) {
+            token = SymbolToken.copy(fromToken, symbolTable.intern(text));
+        }
+        else {
+            token = SourceToken.copy(fromToken);
+            token.setText(text);
+        }
+        token.setType(tokenType);
+        return create(token);
+    }
+    
+    private boolean isSymbol(int tokenType) {
+        return tokenType==CeylonParser.IDENTIFIER && symbolTable!=null;
+    }
+
+    @Override
+    public Object create(int tokenType, String text) {
+        return create(new CommonToken(tokenType, text));
+    }
+
+    @Override
+    public Object nil() {
+        Fragment nil = new Fragment(null);
+        nil.nil = true;
+        return nil;
+    }
+
+    @Override
+    public boolean isNil(Object tree) {
+        return tree instanceof Fragment && ((Fragment) tree).nil;
+    }
+
+    @Override
+    public Object errorNode(TokenStream input, Token start, Token stop,
+            RecognitionException e) {
+        Fragment error = new Fragment(null);
+        error.type = Token.INVALID_TOKEN_TYPE;
+        error.text = new CommonErrorNode(input, start, stop, e).getText();
+        return error;
+    }
+
+    @Override
+    public Object dupNode(Object tree) {
+        if (tree instanceof Node) {
+            return create(((Node) tree).getToken());
+        }
+        else {
+            Fragment f = (Fragment) tree;
+            Fragment dup = new Fragment(f.token);
+            dup.type = f.type;
+            dup.text = f.text;
+            dup.nil = f.nil;
+            return dup;
+        }
+    }
+
+    @Override
+    public Object dupTree(Object tree) {
+        if (tree==null) {
+            return null;
+        }
+        else if (tree instanceof Node) {
+            return builder.copy((Node) tree);
+        }
+        else {
+            Object dup = dupNode(tree);
+            List<Object> children = ((Fragment) tree).children;
+            if (children!=null) {
+                for (Object child: children) {
+                    addChild(dup, dupTree(child));
+                }
+            }
+            return dup;
+        }
+    }
+
+    @Override
+    public void addChild(Object tree, Object child) {
+        if (tree==null || child==null) {
+            return;
+        }
+        if (isNil(child)) {
+            List<Object> children = ((Fragment) child).children;
+            if (children!=null) {
+                for (Object c: children) {
+                    addChild(tree, c);
+                }
+            }
+        }
+        else if (tree instanceof Node) {
+            Node node = (Node) tree;
+            node.setChildPosition(getLine(child), getCharPositionInLine(child));
+            if (child instanceof Node) {
+                builder.addChild(node, (Node) child);
+            }
+        }
+        else {
+            Fragment f = (Fragment) tree;
+            f.getChildren().add(child);
+        }
+    }
+
+    @Override
+    public Object becomeRoot(Object newRoot, Object oldRoot) {
+        if (oldRoot==null) {
+            return newRoot;
+        }
+        if (isNil(newRoot) && ((Fragment) newRoot).children!=null) {
+            List<Object> children = ((Fragment) newRoot).children;
+            if (children.size()==1) {
+                newRoot = children.get(0);
+            }
+            else if (children.size()>1) {
+                throw new RuntimeException("more than one node as root");
+            }
+        }
+        addChild(newRoot, oldRoot);
+        return newRoot;
+    }
+
+    @Override
+    public Object becomeRoot(Token newRoot, Object oldRoot) {
+        return becomeRoot(create(newRoot), oldRoot);
+    }
+
+    @Override
+    public Object rulePostProcessing(Object root) {
+        if (isNil(root)) {
+            List<Object> children = ((Fragment) root).children;
+            if (children==null || children.isEmpty()) {
+                return null;
+            }
+            else if (children.size()==1) {
+                return children.get(0);
+            }
+        }
+        return root;
+    }
+
+    @Override
+    public int getUniqueID(Object node) {
+        return System.identityHashCode(node);
+    }
+
+    @Override
+    public int getType(Object tree) {
+        if (tree instanceof Node) {
+            Token token = ((Node) tree).getToken();
+            return token==null ? Token.INVALID_TOKEN_TYPE : token.getType();
+        }
+        else {
+            return ((Fragment) tree).type;
+        }
+    }
+
+    @Override
+    public void setType(Object tree, int type) {
+        if (tree instanceof Node) {
+            throw new UnsupportedOperationException("the type of a node is its class");
+        }
+        ((Fragment) tree).type = type;
+    }
+
+    @Override
+    public String getText(Object tree) {
+        return tree instanceof Node ?
+                ((Node) tree).getText() : ((Fragment) tree).getText();
+    }
+
+    @Override
+    public void setText(Object tree, String text) {
+        if (tree instanceof Node) {
+            ((Node) tree).setText(text);
+        }
+        else {
+            ((Fragment) tree).text = text;
+        }
+    }
+
+    @Override
+    public Token getToken(Object tree) {
+        return tree instanceof Node ?
+                ((Node) tree).getToken() : ((Fragment) tree).token;
+    }
+
+    @Override
+    public void setTokenBoundaries(Object tree, Token startToken, Token stopToken) {}
+
+    @Override
+    public int getTokenStartIndex(Object tree) {
+        return -1;
+    }
+
+    @Override
+    public int getTokenStopIndex(Object tree) {
+        return -1;
+    }
+
+    @Override
+    public Object getChild(Object tree, int i) {
+        return fragment(tree).getChildren().get(i);
+    }
+
+    @Override
+    public int getChildCount(Object tree) {
+        return fragment(tree).getChildren().size();
+    }
+
+    @Override
+    public void setChild(Object tree, int i, Object child) {
+        fragment(tree).getChildren().set(i, child);
+    }
+
+    @Override
+    public Object deleteChild(Object tree, int i) {
+        return fragment(tree).getChildren().remove(i);
+    }
+
+    @Override
+    public void replaceChildren(Object parent, int startChildIndex,
+            int stopChildIndex, Object tree) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object getParent(Object tree) {
+        return null;
+    }
+
+    @Override
+    public void setParent(Object tree, Object parent) {}
+
+    @Override
+    public int getChildIndex(Object tree) {
+        return -1;
+    }
+
+    @Override
+    public void setChildIndex(Object tree, int index) {}
+
+    private static Fragment fragment(Object tree) {
+        if (tree instanceof Node) {
+            throw new UnsupportedOperationException("the children of a node are not kept");
+        }
+        return (Fragment) tree;
+    }
+
+    //the position of a tree, as for a CommonTree: the
+    //position of its token, or of its first child
+
+    private static int getLine(Object tree) {
+        if (tree instanceof Node) {
+            return ((Node) tree).getLine();
+        }
+        Fragment f = (Fragment) tree;
+        if (f.token==null || f.token.getLine()==0) {
+            return f.children==null ? 0 : getLine(f.children.get(0));
+        }
+        return f.token.getLine();
+    }
+
+    private static int getCharPositionInLine(Object tree) {
+        if (tree instanceof Node) {
+            return ((Node) tree).getCharPositionInLine();
+        }
+        Fragment f = (Fragment) tree;
+        if (f.token==null || f.token.getCharPositionInLine()==-1) {
+            return f.children==null ? 0 : getCharPositionInLine(f.children.get(0));
+        }
+        return f.token.getCharPositionInLine();
+    }
+
+    /**
+     * A list of trees, a token for which the tree has
+     * no node, or an error.
+     */
+    private static final class Fragment {
+        final Token token;
+        int type;
+        String text;
+        boolean nil;
+        List<Object> children;
+
+        Fragment(Token token) {
+            this.token = token;
+            if (token!=null) {
+                type = token.getType();
+            }
+        }
+
+        //the text of the token is only copied out of
+        //the source if it is asked for
+        String getText() {
+            return text==null && token!=null ? token.getText() : text;
+        }
+
+        List<Object> getChildren() {
+            if (children==null) {
+                children = new ArrayList<Object>();
+            }
+            return children;
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.redhat.ceylon.compiler.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.redhat.ceylon.compiler.parser.LineTable;
+
+/**
+ * An index of the nodes of a tree by their offsets in
+ * the source, for an editor which asks, for example,
+ * which node or declaration is under the cursor. The
+ * nodes are sorted by the offset of their first
+ * character, so that the innermost node at an offset
+ * is found by a binary search and a climb to the
+ * nearest ancestor containing the offset, and the
+ * nodes in a range by a binary search and a scan of
+ * the nodes which start in the range. Nodes with no
+ * token in the source are not indexed.
+ *
+ * The index is a snapshot of the tree, which is built
+ * again when the file is parsed again.
+ */
+public class PositionIndex {
+
+    private final LineTable lineTable;
+    private final Node[] nodes;
+    private final int[] starts;
+
+    public PositionIndex(Node root, LineTable lineTable) {
+        this.lineTable = lineTable;
+        final List<Node> list = new ArrayList<Node>();
+        FusedVisitor fv = new FusedVisitor(new Pass() {
+            @Override public boolean enterAny(Node that) {
+                if (that.getStartIndex()>=0) {
+                    list.add(that);
+                }
+                return true;
+            }
+        });
+        fv.setIterative(true);
+        root.visit(fv);
+        //the sort is stable, so a node comes before the
+        //nodes beneath it which start where it does
+        Collections.sort(list, new Comparator<Node>() {
+            @Override public int compare(Node x, Node y) {
+                return x.getStartIndex()<y.getStartIndex() ? -1 :
+                    x.getStartIndex()==y.getStartIndex() ? 0 : 1;
+            }
+        });
+        nodes = list.toArray(new Node[list.size()]);
+        starts = new int[nodes.length];
+        for (int i=0; i<nodes.length; i++) {
+            starts[i] = nodes[i].getStartIndex();
+        }
+    }
+
+    public LineTable getLineTable() {
+        return lineTable;
+    }
+
+    /**
+     * The number of nodes in the index.
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * The innermost node containing the character at
+     * the given offset, or null if there is none. In a
+     * tree recovered from a syntax error, whose sibling
+     * nodes may overlap, it is a node containing the
+     * character, but not necessarily the innermost.
+     */
+    public Node getNodeAt(int offset) {
+        int i = lastStartingBy(offset);
+        for (Node n = i<0 ? null : nodes[i]; n!=null; n=n.getParent()) {
+            if (contains(n, offset)) {
+                return n;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The innermost node containing the character at
+     * the given line and position in the line.
+     */
+    public Node getNodeAt(int line, int charPositionInLine) {
+        return getNodeAt(lineTable.getOffset(line, charPositionInLine));
+    }
+
+    /**
+     * The innermost declaration containing the character
+     * at the given offset, or null if there is none.
+     */
+    public Tree.Declaration getDeclarationAt(int offset) {
+        for (Node n = getNodeAt(offset); n!=null; n=n.getParent()) {
+            if (n instanceof Tree.Declaration) {
+                return (Tree.Declaration) n;
+            }
+        }
+        return null;
+    }
+
+    public Tree.Declaration getDeclarationAt(int line, int charPositionInLine) {
+        return getDeclarationAt(lineTable.getOffset(line, charPositionInLine));
+    }
+
+    /**
+     * The nodes lying wholly between the given offsets,
+     * inclusive, ordered by their first character, each
+     * node before the nodes beneath it.
+     */
+    public List<Node> getNodesIn(int startIndex, int stopIndex) {
+        List<Node> result = new ArrayList<Node>();
+        for (int i=lastStartingBy(startIndex-1)+1;
+                i<nodes.length && starts[i]<=stopIndex; i++) {
+            if (nodes[i].getStopIndex()<=stopIndex) {
+                result.add(nodes[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The nodes lying wholly between the given lines,
+     * inclusive.
+     */
+    public List<Node> getNodesInLines(int firstLine, int lastLine) {
+        int stopIndex = lastLine<lineTable.getLineCount() ?
+                lineTable.getLineStart(lastLine+1)-1 : Integer.MAX_VALUE;
+        return getNodesIn(lineTable.getLineStart(firstLine), stopIndex);
+    }
+
+    private static boolean contains(Node node, int offset) {
+        return node.getStartIndex()>=0 &&
+                node.getStartIndex()<=offset &&
+                node.getStopIndex()>=offset;
+    }
+
+    //the index of the last node which starts at or
+    //before the offset, or -1
+    private int lastStartingBy(int offset) {
+        int low = 0;
+        int high = nodes.length;
+        while (low<high) {
+            int mid = (low+high)>>>1;
+            if (starts[mid]<=offset) {
+                low = mid+1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low-1;
+    }
+
+}
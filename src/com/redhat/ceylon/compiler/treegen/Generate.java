@@ -17,6 +17,8 @@ public class Generate {
         builder(file);
         walker(file);
         visitor(file);
+        pass(file);
+        fusedVisitor(file);
     }
     
     private static void tree(File file) throws Exception {
@@ -67,4 +69,30 @@ public class Generate {
         parser.nodeList();
     }
     
+    private static void pass(File file) throws Exception {
+        InputStream is = new FileInputStream( file );
+        ANTLRInputStream input = new ANTLRInputStream(is);
+        VisitorgenLexer lexer = new VisitorgenLexer(input);
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        VisitorgenParser parser = new VisitorgenParser(tokens);
+        File out = new File("gensrc/com/redhat/ceylon/compiler/tree/Pass.java");
+        out.createNewFile();
+        parser.out=new PrintStream(out);
+        parser.pass=true;
+        parser.nodeList();
+    }
+    
+    private static void fusedVisitor(File file) throws Exception {
+        InputStream is = new FileInputStream( file );
+        ANTLRInputStream input = new ANTLRInputStream(is);
+        WalkergenLexer lexer = new WalkergenLexer(input);
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        WalkergenParser parser = new WalkergenParser(tokens);
+        File out = new File("gensrc/com/redhat/ceylon/compiler/tree/FusedVisitor.java");
+        out.createNewFile();
+        parser.out=new PrintStream(out);
+        parser.fused=true;
+        parser.nodeList();
+    }
+    
 }